@@ -0,0 +1,307 @@
+package com.otaliastudios.printer.demo;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
+import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.otaliastudios.printer.DocumentReflowCallback;
+import com.otaliastudios.printer.DocumentView;
+import com.otaliastudios.printer.JpegPrinter;
+import com.otaliastudios.printer.PdfPrinter;
+import com.otaliastudios.printer.PngPrinter;
+import com.otaliastudios.printer.PrintJob;
+import com.otaliastudios.printer.PrintProgressCallback;
+import com.otaliastudios.printer.PrintSize;
+import com.otaliastudios.printer.PrintStats;
+import com.otaliastudios.printer.PrintStatsCallback;
+import com.otaliastudios.printer.Printer;
+import com.otaliastudios.printer.PrinterLogger;
+import com.otaliastudios.printer.TiffPrinter;
+import com.otaliastudios.printer.WebpPrinter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Prints synthetic documents of text and images with every printer, and writes
+ * timings, output size and peak memory to a JSON file in the app external files dir.
+ * Each document is printed only after pagination has settled.
+ *
+ * Run with: adb shell am start -n com.otaliastudios.printer.demo/.BenchmarkActivity --eia pages 1,10,100
+ *
+ * The activity is exported only in debug builds, so that adb can start it. It only writes
+ * to app-specific directories, which need no permission, and reads nothing but the page counts.
+ */
+public class BenchmarkActivity extends AppCompatActivity implements
+        PrintProgressCallback, PrintStatsCallback, DocumentReflowCallback {
+
+    private final static String TAG = BenchmarkActivity.class.getSimpleName();
+    private final static String EXTRA_PAGES = "pages";
+    private final static int[] DEFAULT_PAGES = new int[]{ 1, 10, 100, 500 };
+    private final static String[] PRINTERS = new String[]{ "pdf", "png", "jpeg", "webp", "tiff" };
+    private final static long SETTLE_TIME = 500;
+    private final static String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, " +
+            "sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. Ut enim ad minim " +
+            "veniam, quis nostrud exercitation ullamco laboris nisi ut aliquip ex ea commodo consequat. ";
+
+    private final Handler mHandler = new Handler();
+    private final JSONArray mResults = new JSONArray();
+    private FrameLayout mContainer;
+    private DocumentView mDocument;
+    private File mDirectory;
+    private int[] mPageCounts;
+    private int mPageIndex = 0;
+    private int mPrinterIndex = 0;
+    private long mLastLayoutMillis;
+    private long mLayoutStartNanos;
+    private long mLayoutNanos;
+
+    // Current run
+    private String mPrinterName;
+    private PrintJob mJob;
+    private PrintStats mStats;
+    private long mStartNanos;
+    private long mRenderedNanos;
+    private long mLastNanos;
+    private long mPeakJavaHeap;
+    private long mPeakNativeHeap;
+    private int mFiles;
+    private boolean mFailed;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        PrinterLogger.setLogLevel(PrinterLogger.LEVEL_ERROR);
+        mContainer = new FrameLayout(this);
+        setContentView(mContainer);
+        mDirectory = new File(getCacheDir(), "benchmark");
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.mkdirs();
+        mPageCounts = getIntent().getIntArrayExtra(EXTRA_PAGES);
+        if (mPageCounts == null) mPageCounts = DEFAULT_PAGES;
+        createDocument();
+    }
+
+    // Each page holds a text block and an image, half a page each.
+    private void createDocument() {
+        int pages = mPageCounts[mPageIndex];
+        mDocument = new DocumentView(this);
+        mDocument.setDocumentCallback(this);
+        mDocument.getViewTreeObserver().addOnGlobalLayoutListener(mLayoutListener);
+        mDocument.setPageInset(0, 0, 0, 0);
+        mDocument.setPrintSize(PrintSize.ISO_A4);
+        int height = PrintSize.ISO_A4.heightPixels(this) / 2;
+        mLayoutStartNanos = System.nanoTime();
+        onLayoutEvent();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 10; i++) text.append(TEXT);
+        for (int i = 0; i < pages; i++) {
+            TextView textView = new TextView(this);
+            textView.setText(text);
+            mDocument.addView(textView, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, height));
+            ImageView imageView = new ImageView(this);
+            imageView.setImageDrawable(new LogoDrawable(this));
+            mDocument.addView(imageView, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, height));
+        }
+        mContainer.removeAllViews();
+        mContainer.addView(mDocument);
+        mPrinterIndex = 0;
+        mHandler.post(mWaitForLayout);
+    }
+
+    private void onLayoutEvent() {
+        mLastLayoutMillis = SystemClock.uptimeMillis();
+    }
+
+    private final ViewTreeObserver.OnGlobalLayoutListener mLayoutListener = new ViewTreeObserver.OnGlobalLayoutListener() {
+        @Override
+        public void onGlobalLayout() {
+            onLayoutEvent();
+        }
+    };
+
+    // Pagination happens in posted reflows, so we wait until pages, reflows
+    // and layouts stop for a while, before starting the timer.
+    private final Runnable mWaitForLayout = new Runnable() {
+        @Override
+        public void run() {
+            boolean settled = mDocument.isLaidOut() && !mDocument.isLayoutRequested()
+                    && SystemClock.uptimeMillis() - mLastLayoutMillis >= SETTLE_TIME;
+            if (!settled) {
+                mHandler.postDelayed(this, 16);
+                return;
+            }
+            mLayoutNanos = System.nanoTime() - mLayoutStartNanos;
+            mDocument.getViewTreeObserver().removeOnGlobalLayoutListener(mLayoutListener);
+            printNext();
+        }
+    };
+
+    private void printNext() {
+        if (mPrinterIndex == PRINTERS.length) {
+            mPageIndex++;
+            if (mPageIndex == mPageCounts.length) {
+                writeResults();
+            } else {
+                createDocument();
+            }
+            return;
+        }
+        mPrinterName = PRINTERS[mPrinterIndex++];
+        Printer printer = createPrinter(mPrinterName);
+        String filename = "bench-" + mPrinterName + "-" + mPageCounts[mPageIndex];
+        Runtime.getRuntime().gc();
+        mPeakJavaHeap = 0;
+        mPeakNativeHeap = 0;
+        mFiles = 0;
+        mFailed = false;
+        mStats = null;
+        mRenderedNanos = 0;
+        mStartNanos = System.nanoTime();
+        mLastNanos = mStartNanos;
+        mJob = printer.print(mPrinterName, mDirectory, filename);
+        mHandler.post(mWaitForJob);
+    }
+
+    private Printer createPrinter(String name) {
+        switch (name) {
+            case "pdf": return new PdfPrinter(mDocument, this);
+            case "png": return new PngPrinter(mDocument, this);
+            case "jpeg": return new JpegPrinter(mDocument, this);
+            case "webp": return new WebpPrinter(mDocument, this);
+            case "tiff": return new TiffPrinter(mDocument, this);
+        }
+        throw new IllegalArgumentException("Unknown printer: " + name);
+    }
+
+    private final Runnable mWaitForJob = new Runnable() {
+        @Override
+        public void run() {
+            if (!mJob.isDone()) {
+                sampleMemory();
+                mHandler.postDelayed(this, 16);
+                return;
+            }
+            try {
+                mResults.put(createResult());
+            } catch (JSONException e) {
+                throw new RuntimeException(e);
+            }
+            printNext();
+        }
+    };
+
+    private void sampleMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        mPeakJavaHeap = Math.max(mPeakJavaHeap, runtime.totalMemory() - runtime.freeMemory());
+        mPeakNativeHeap = Math.max(mPeakNativeHeap, Debug.getNativeHeapAllocatedSize());
+    }
+
+    private JSONObject createResult() throws JSONException {
+        int pages = mJob.getPageCount();
+        double totalMs = (mLastNanos - mStartNanos) / 1e6;
+        double renderMs = ((mRenderedNanos > 0 ? mRenderedNanos : mLastNanos) - mStartNanos) / 1e6;
+        JSONObject result = new JSONObject();
+        result.put("printer", mPrinterName);
+        result.put("pages", pages);
+        result.put("documentPages", mDocument.getPageCount());
+        result.put("layoutMs", mLayoutNanos / 1e6);
+        result.put("failed", mFailed);
+        result.put("totalMs", totalMs);
+        result.put("renderMs", renderMs);
+        result.put("renderMsPerPage", pages == 0 ? 0 : renderMs / pages);
+        result.put("encodeTailMs", totalMs - renderMs);
+        result.put("pagesPerSecond", totalMs == 0 ? 0 : pages * 1000 / totalMs);
+        result.put("files", mFiles);
+        result.put("bytes", mJob.getBytesWritten());
+        result.put("peakJavaHeapBytes", mPeakJavaHeap);
+        result.put("peakNativeHeapBytes", mPeakNativeHeap);
+        if (mStats != null) {
+            JSONObject phases = new JSONObject();
+            for (int i = 0; i < PrintStats.PHASE_COUNT; i++) {
+                phases.put(PrintStats.getPhaseName(i) + "Ms", mStats.getPhaseNanos(i) / 1e6);
+            }
+            result.put("phases", phases);
+            result.put("picturesRecorded", mStats.getPicturesRecorded());
+            result.put("bitmapBytesAllocated", mStats.getBitmapBytesAllocated());
+        }
+        Log.i(TAG, result.toString());
+        return result;
+    }
+
+    private void writeResults() {
+        File file = new File(getExternalFilesDir(null), "benchmark-" + System.currentTimeMillis() + ".json");
+        try {
+            JSONObject json = new JSONObject();
+            json.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+            json.put("sdk", Build.VERSION.SDK_INT);
+            json.put("results", mResults);
+            FileOutputStream stream = new FileOutputStream(file);
+            try {
+                stream.write(json.toString(2).getBytes("UTF-8"));
+            } finally {
+                stream.close();
+            }
+            Toast.makeText(this, "Results written to " + file, Toast.LENGTH_LONG).show();
+        } catch (JSONException | IOException e) {
+            Log.e(TAG, "Could not write results.", e);
+        }
+    }
+
+    @Override
+    public void onPageCreated(int number) {
+        onLayoutEvent();
+    }
+
+    @Override
+    public void onPageDestroyed(int number) {
+        onLayoutEvent();
+    }
+
+    @Override
+    public void onDocumentReflow(int depth, long nanos) {
+        onLayoutEvent();
+    }
+
+    @Override
+    public void onPrintProgress(String id, PrintJob job) {
+        mLastNanos = System.nanoTime();
+        if (mRenderedNanos == 0 && job.getPagesRendered() == job.getPageCount()) {
+            mRenderedNanos = mLastNanos;
+        }
+        sampleMemory();
+    }
+
+    @Override
+    public void onPrint(String id, File file) {
+        mLastNanos = System.nanoTime();
+        mFiles++;
+    }
+
+    @Override
+    public void onPrintStats(String id, PrintStats stats) {
+        mStats = stats;
+    }
+
+    @Override
+    public void onPrintFailed(String id, Throwable error) {
+        mLastNanos = System.nanoTime();
+        mFailed = true;
+        Log.e(TAG, "Print failed: " + id, error);
+    }
+}
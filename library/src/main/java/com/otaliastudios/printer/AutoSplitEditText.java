@@ -105,6 +105,20 @@ public class AutoSplitEditText extends DocumentEditText implements AutoSplitView
         mHelper.setChainText(text);
     }
 
+    /**
+     * Sets a new text for this chain, like {@link #setChainText(CharSequence)}, but computes
+     * the line and column breaks for the whole text in a background thread, then
+     * splits the chain in a single pass. This is much faster for long texts.
+     *
+     * The chain should be the last content in its column. If it is not, this
+     * falls back to {@link #setChainText(CharSequence)}.
+     *
+     * @param text the new text.
+     */
+    public void setChainTextAsync(@NonNull CharSequence text) {
+        mHelper.setChainTextAsync(text);
+    }
+
     /**
      * Returns the first view of the chain. It is safe to call
      * {@link #setText(int)} on it - changes will be dispatched to children if
@@ -10,6 +10,7 @@ import android.text.Editable;
 import android.text.Layout;
 import android.text.SpannableStringBuilder;
 import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.text.TextWatcher;
 import android.text.method.TransformationMethod;
 import android.util.TypedValue;
@@ -20,6 +21,12 @@ import android.view.inputmethod.InputConnection;
 import android.view.inputmethod.InputConnectionWrapper;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,6 +56,8 @@ public class AutoSplitTextHelper<T extends TextView & AutoSplitView> implements
     private static final char NEWLINE = '\n';
     private static final char REPLACEMENT = '\uFEFF';
 
+    private static Executor sPlanExecutor;
+
     private final T mView;
     private final Provider<T> mProvider;
     private int mPageNumber = -1;
@@ -57,6 +66,8 @@ public class AutoSplitTextHelper<T extends TextView & AutoSplitView> implements
     private boolean mActionInProgress = false;
     private Rect mTmp = new Rect();
     private CharSequence mDetachText;
+    private int mPlanId = 0;
+    private int mChainVersion = 0;
 
     T mPre;
     T mPost;
@@ -172,10 +183,229 @@ public class AutoSplitTextHelper<T extends TextView & AutoSplitView> implements
         if (!isFirst()) {
             previous().setChainText(text);
         } else {
+            mPlanId++; // Discard pending async texts.
             mView.setText(text);
         }
     }
 
+    /**
+     * Sets a new text for the whole chain, like {@link #setChainText(CharSequence)}.
+     * But instead of letting the text flow through columns one step at a time,
+     * line and column breaks for the whole text are computed with a {@link StaticLayout}
+     * in a background thread, and then the chain is split in a single pass.
+     *
+     * This needs the chain to be the last content of its column. If it is not, or if
+     * something changed while we were computing, this falls back to {@link #setChainText(CharSequence)}.
+     *
+     * @param text the new text
+     */
+    public void setChainTextAsync(@NonNull CharSequence text) {
+        if (!isFirst()) {
+            previous().setChainTextAsync(text);
+            return;
+        }
+        final int planId = ++mPlanId;
+        final int chainVersion = mChainVersion;
+        DocumentColumn column = DocumentHelper.findContainer(mView);
+        if (!canPlan(column)) {
+            LOG.i(logPrefix(), "setChainTextAsync:", "can't plan here. Setting text.");
+            setChainText(text);
+            return;
+        }
+        final Plan plan = new Plan(mView, column, new SpannableStringBuilder(text));
+        final Handler ui = new Handler();
+        getPlanExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                plan.compute();
+                ui.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (planId == mPlanId) commit(plan, chainVersion);
+                    }
+                });
+            }
+        });
+    }
+
+    // Plans are computed one at a time, off the printers executor, so they don't wait for prints.
+    private static synchronized Executor getPlanExecutor() {
+        if (sPlanExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1,
+                    30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    Printer.createThreadFactory(TAG + "Worker-"));
+            executor.allowCoreThreadTimeOut(true);
+            sPlanExecutor = executor;
+        }
+        return sPlanExecutor;
+    }
+
+    private boolean canPlan(@Nullable DocumentColumn column) {
+        return column != null && column.isBounded() && column.getRoot() != null &&
+                column.getViewAt(column.getViewCount() - 1) == mView;
+    }
+
+    // Splits the chain according to the plan, in a single pass. Called on the first view.
+    // If the chain text changed in the meantime, the chain might have moved or be moving
+    // through columns, so the geometry we captured can't be trusted.
+    private void commit(Plan plan, int chainVersion) {
+        DocumentColumn column = DocumentHelper.findContainer(mView);
+        if (plan.mBreaks == null || chainVersion != mChainVersion || !canPlan(column) ||
+                !plan.matches(new Plan(mView, column, plan.mText))) {
+            LOG.w(logPrefix(), "commit:", "plan is not valid anymore. Setting text.");
+            setChainText(plan.mText);
+            return;
+        }
+        LOG.i(logPrefix(), "commit:", "splitting into", plan.mBreaks.length + 1, "views.");
+        CharSequence text = plan.mText;
+        DocumentPager pager = column.getRoot().getRoot();
+        pager.beginBatch();
+        setActionInProgress(true);
+        try {
+            while (!isLast()) removeFromChain(mPost);
+            T view = mView;
+            int start = 0;
+            for (int i = 0; i <= plan.mBreaks.length; i++) {
+                int end = i < plan.mBreaks.length ? plan.mBreaks[i] : text.length();
+                if (i == 0) {
+                    view.setText(text.subSequence(start, end));
+                } else {
+                    view = mProvider.getHelper(view).split();
+                    view.setText(text.subSequence(start, end));
+                    column = column.getRoot().getSibling(column);
+                    column.takeFirst(view, view.getLayoutParams());
+                }
+                start = end;
+            }
+        } finally {
+            setActionInProgress(false);
+            pager.endBatch();
+        }
+    }
+
+    /**
+     * Everything that is needed to paginate the chain text, captured in the UI thread,
+     * so that breaks can be computed in a background thread.
+     */
+    static class Plan {
+
+        private final CharSequence mText;
+        private final TextPaint mPaint;
+        private final int mWidth;
+        private final int mFirstSpace;
+        private final int mSpace;
+        private final float mSpacingMult;
+        private final float mSpacingAdd;
+        private final boolean mIncludePad;
+        private final Layout.Alignment mAlignment;
+        private int mBreakStrategy;
+        private int mHyphenation;
+        private int mJustification;
+
+        // Offsets where each view but the first starts, or null if we should not split this way.
+        int[] mBreaks;
+
+        private Plan(TextView view, DocumentColumn column, CharSequence text) {
+            int marginsX = 0, marginsY = 0;
+            if (view.getLayoutParams() instanceof ViewGroup.MarginLayoutParams) {
+                ViewGroup.MarginLayoutParams margins = (ViewGroup.MarginLayoutParams) view.getLayoutParams();
+                marginsX = margins.leftMargin + margins.rightMargin;
+                marginsY = margins.topMargin + margins.bottomMargin;
+            }
+            int paddingY = view.getCompoundPaddingTop() + view.getCompoundPaddingBottom();
+            mText = text;
+            mPaint = new TextPaint(view.getPaint());
+            mWidth = column.getWidthBound() - marginsX -
+                    view.getCompoundPaddingLeft() - view.getCompoundPaddingRight();
+            mSpace = column.getHeightBound() - marginsY - paddingY;
+            mFirstSpace = mSpace - column.getHeightBefore(view);
+            mSpacingMult = view.getLineSpacingMultiplier();
+            mSpacingAdd = view.getLineSpacingExtra();
+            mIncludePad = view.getIncludeFontPadding();
+            mAlignment = view.getLayout() != null ? view.getLayout().getAlignment() : Layout.Alignment.ALIGN_NORMAL;
+            if (Build.VERSION.SDK_INT >= 23) {
+                mBreakStrategy = view.getBreakStrategy();
+                mHyphenation = view.getHyphenationFrequency();
+            }
+            if (Build.VERSION.SDK_INT >= 26) mJustification = view.getJustificationMode();
+        }
+
+        private boolean matches(Plan other) {
+            return mWidth == other.mWidth && mSpace == other.mSpace && mFirstSpace == other.mFirstSpace;
+        }
+
+        // Called in a background thread.
+        private void compute() {
+            if (mWidth <= 0) return;
+            Layout layout;
+            if (Build.VERSION.SDK_INT >= 23) {
+                StaticLayout.Builder builder = StaticLayout.Builder.obtain(mText, 0, mText.length(), mPaint, mWidth)
+                        .setAlignment(mAlignment)
+                        .setLineSpacing(mSpacingAdd, mSpacingMult)
+                        .setIncludePad(mIncludePad)
+                        .setBreakStrategy(mBreakStrategy)
+                        .setHyphenationFrequency(mHyphenation);
+                if (Build.VERSION.SDK_INT >= 26) builder.setJustificationMode(mJustification);
+                layout = builder.build();
+            } else {
+                layout = new StaticLayout(mText, mPaint, mWidth, mAlignment, mSpacingMult, mSpacingAdd, mIncludePad);
+            }
+
+            int count = layout.getLineCount();
+            int[] lineTops = new int[count + 1];
+            int[] lineStarts = new int[count];
+            for (int line = 0; line < count; line++) {
+                lineTops[line] = layout.getLineTop(line);
+                lineStarts[line] = layout.getLineStart(line);
+            }
+            lineTops[count] = layout.getLineTop(count);
+            int padding = layout.getBottomPadding() - layout.getTopPadding();
+            mBreaks = computeBreaks(mText, lineTops, lineStarts, padding, mFirstSpace, mSpace);
+        }
+
+        /**
+         * Each view is given whole lines, as long as they fit in the available space.
+         * The first view starts below the column content, the others at the top of a new column.
+         * Whitespaces follow the releaseSpace() policy: newlines are passed to the next view.
+         *
+         * @param text the laid out text
+         * @param lineTops the top of each line, plus the bottom of the last one
+         * @param lineStarts the offset where each line starts
+         * @param padding extra height to be added to each view
+         * @param firstSpace space available to the first view
+         * @param space space available to the others
+         * @return offsets where each view but the first starts, or null if not even a line fits the first
+         */
+        @Nullable
+        static int[] computeBreaks(CharSequence text, int[] lineTops, int[] lineStarts,
+                                   int padding, int firstSpace, int space) {
+            List<Integer> breaks = new ArrayList<>();
+            int available = firstSpace;
+            int startLine = 0;
+            for (int line = 0; line < lineStarts.length; line++) {
+                int height = lineTops[line + 1] - lineTops[startLine] + padding;
+                if (height <= available) continue;
+                if (line == startLine) {
+                    // Not even a line fits. If this is the first view, it should rather be moved.
+                    if (line == 0) return null;
+                    continue;
+                }
+                int offset = lineStarts[line];
+                if (text.charAt(offset - 1) == NEWLINE) offset--;
+                breaks.add(offset);
+                startLine = line;
+                available = space;
+                line--; // Check this line again against the new space.
+            }
+            int[] result = new int[breaks.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = breaks.get(i);
+            }
+            return result;
+        }
+    }
+
     public T getFirst() {
         return isFirst() ? mView : previous().getFirst();
     }
@@ -451,7 +681,17 @@ public class AutoSplitTextHelper<T extends TextView & AutoSplitView> implements
     }
 
     @Override
-    public void onTextChanged(CharSequence s, int start, int before, int count) {}
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        onChainTextChanged();
+    }
+
+    private void onChainTextChanged() {
+        if (isFirst()) {
+            mChainVersion++;
+        } else {
+            previous().onChainTextChanged();
+        }
+    }
 
     @Override
     public void afterTextChanged(Editable s) {
@@ -0,0 +1,32 @@
+package com.otaliastudios.printer;
+
+
+import android.graphics.Bitmap;
+
+import java.io.IOException;
+
+/**
+ * An image encoder that receives the image in horizontal bands,
+ * from top to bottom, and writes them to its stream as they come.
+ * Used by {@link BitmapPrinter} for tiled rendering.
+ */
+interface BandEncoder {
+
+    /**
+     * Encodes the first rows of the given band.
+     * The band width must be equal to the image width.
+     *
+     * @param band a band of the image
+     * @param rows how many rows of the band should be encoded
+     * @throws IOException if writing fails
+     */
+    void encode(Bitmap band, int rows) throws IOException;
+
+    /**
+     * Called after the last band was encoded, to complete the output.
+     * This does not close the underlying stream.
+     *
+     * @throws IOException if writing fails
+     */
+    void finish() throws IOException;
+}
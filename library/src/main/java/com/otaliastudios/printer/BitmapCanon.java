@@ -0,0 +1,248 @@
+package com.otaliastudios.printer;
+
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.UiThread;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Lets identical bitmaps share a single instance while pages are recorded for a PDF file.
+ *
+ * The PDF backend writes an image only once per document, as long as it is always drawn
+ * from the same immutable bitmap. Mutable bitmaps, or equal bitmaps that were decoded more
+ * than once, are instead embedded again on each page. So, before a page is recorded, we look for
+ * {@link ImageView}s and backgrounds holding a {@link BitmapDrawable}, and swap their bitmap
+ * with an immutable instance that has the same pixels. Views are restored right after recording.
+ *
+ * Pixels are only compared between bitmaps with the same size and config. The first bitmap
+ * of each shape is used as is, and hashing starts when a second one shows up. Hashes are
+ * remembered by {@link Hashes}, which can outlive this object, so that bitmaps are not hashed
+ * again for each file.
+ *
+ * Canonical bitmaps are held until this object is released, so a new instance
+ * should be used for each file. Views are swapped while the page is printing,
+ * so that they do not count as content changes.
+ */
+@UiThread
+class BitmapCanon {
+
+    private static final String TAG = BitmapCanon.class.getSimpleName();
+    private static final PrinterLogger LOG = PrinterLogger.create(TAG);
+
+    private static class Entry {
+        private final int mGenerationId;
+        private final Bitmap mBitmap;
+
+        private Entry(int generationId, Bitmap bitmap) {
+            mGenerationId = generationId;
+            mBitmap = bitmap;
+        }
+    }
+
+    // The first bitmap seen with some shape, not hashed yet.
+    private static class Pending {
+        private final Bitmap mSource;
+        private final int mGenerationId;
+        private final Bitmap mShared;
+
+        private Pending(Bitmap source, int generationId, Bitmap shared) {
+            mSource = source;
+            mGenerationId = generationId;
+            mShared = shared;
+        }
+    }
+
+    /**
+     * Remembers the pixel hash of bitmaps, as long as they are alive and
+     * their pixels do not change. Bitmaps are compared by identity.
+     */
+    static class Hashes {
+        private final Map<Bitmap, Entry> mHashes = new WeakHashMap<>();
+
+        private static class Entry {
+            private final int mGenerationId;
+            private final String mHash;
+
+            private Entry(int generationId, String hash) {
+                mGenerationId = generationId;
+                mHash = hash;
+            }
+        }
+
+        private String get(Bitmap bitmap) {
+            int generationId = bitmap.getGenerationId();
+            Entry entry = mHashes.get(bitmap);
+            if (entry != null && entry.mGenerationId == generationId) return entry.mHash;
+            String hash = RenderCache.hash(bitmap, bitmap.getConfig().name());
+            mHashes.put(bitmap, new Entry(generationId, hash));
+            return hash;
+        }
+    }
+
+    private static class Swap {
+        private final View mView;
+        private final Drawable mDrawable;
+        private final boolean mBackground;
+
+        private Swap(View view, Drawable drawable, boolean background) {
+            mView = view;
+            mDrawable = drawable;
+            mBackground = background;
+        }
+    }
+
+    private final Resources mResources;
+    private final Hashes mHashes;
+    private final Map<Bitmap, Entry> mEntries = new IdentityHashMap<>();
+    private final Map<String, Pending> mPending = new HashMap<>();
+    private final Set<String> mHashedShapes = new HashSet<>();
+    private final Map<String, Bitmap> mBitmaps = new HashMap<>();
+    private final Map<Bitmap, Boolean> mUsed = new IdentityHashMap<>();
+    private final List<Swap> mSwaps = new ArrayList<>();
+
+    BitmapCanon(@NonNull Resources resources, @NonNull Hashes hashes) {
+        mResources = resources;
+        mHashes = hashes;
+    }
+
+    /**
+     * Swaps bitmaps in the given hierarchy with their shared instance.
+     * Must be followed by {@link #restore()}.
+     *
+     * @param view the page
+     * @param stats the stats, to count images that were shared
+     */
+    void apply(@NonNull View view, @NonNull PrintStats stats) {
+        // The page itself might be hidden while offscreen, but it is drawn anyway.
+        if (!(view instanceof DocumentPage) && view.getVisibility() != View.VISIBLE) return;
+        Drawable background = view.getBackground();
+        if (background instanceof BitmapDrawable) {
+            Drawable shared = share((BitmapDrawable) background, stats);
+            if (shared != background) {
+                mSwaps.add(new Swap(view, background, true));
+                view.setBackground(shared);
+            }
+        }
+        if (view instanceof ImageView) {
+            ImageView image = (ImageView) view;
+            Drawable drawable = image.getDrawable();
+            if (drawable instanceof BitmapDrawable) {
+                Drawable shared = share((BitmapDrawable) drawable, stats);
+                if (shared != drawable) {
+                    mSwaps.add(new Swap(view, drawable, false));
+                    image.setImageDrawable(shared);
+                }
+            }
+        }
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                apply(group.getChildAt(i), stats);
+            }
+        }
+    }
+
+    /**
+     * Gives the original drawables back to views.
+     */
+    void restore() {
+        for (int i = mSwaps.size() - 1; i >= 0; i--) {
+            Swap swap = mSwaps.get(i);
+            if (swap.mBackground) {
+                swap.mView.setBackground(swap.mDrawable);
+            } else {
+                ((ImageView) swap.mView).setImageDrawable(swap.mDrawable);
+            }
+        }
+        mSwaps.clear();
+    }
+
+    // Returns a drawable drawing the shared bitmap, or the same drawable if it can be used as is.
+    private Drawable share(BitmapDrawable drawable, PrintStats stats) {
+        Bitmap bitmap = drawable.getBitmap();
+        if (bitmap == null) return drawable;
+        Bitmap shared = getBitmap(bitmap);
+        if (mUsed.put(shared, true) != null) stats.mImagesShared++;
+        if (shared == bitmap) return drawable;
+
+        BitmapDrawable copy = new BitmapDrawable(mResources, shared);
+        if (copy.getIntrinsicWidth() != drawable.getIntrinsicWidth() ||
+                copy.getIntrinsicHeight() != drawable.getIntrinsicHeight()) {
+            // Would need a new layout.
+            return drawable;
+        }
+        copy.setGravity(drawable.getGravity());
+        copy.setTileModeXY(drawable.getTileModeX(), drawable.getTileModeY());
+        copy.setAlpha(drawable.getAlpha());
+        copy.setAntiAlias(drawable.getPaint().isAntiAlias());
+        copy.setFilterBitmap(drawable.getPaint().isFilterBitmap());
+        copy.setColorFilter(drawable.getPaint().getColorFilter());
+        copy.setBounds(drawable.getBounds());
+        return copy;
+    }
+
+    // Returns the immutable bitmap with the same pixels of the given one.
+    private Bitmap getBitmap(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !isSoftware(bitmap)) return bitmap;
+        int generationId = bitmap.getGenerationId();
+        Entry entry = mEntries.get(bitmap);
+        if (entry != null && entry.mGenerationId == generationId) return entry.mBitmap;
+
+        // Only bitmaps with the same shape can have the same pixels.
+        String shape = bitmap.getWidth() + "x" + bitmap.getHeight() + ":" + bitmap.getConfig().name();
+        Bitmap shared;
+        Pending pending = mPending.get(shape);
+        if (pending == null && !mHashedShapes.contains(shape)) {
+            shared = toImmutable(bitmap);
+            mPending.put(shape, new Pending(bitmap, generationId, shared));
+        } else {
+            if (pending != null) {
+                // Second bitmap with this shape. Hash the first one, too. If its pixels
+                // changed in the meanwhile, hash the shared copy, which has the old ones.
+                mPending.remove(shape);
+                mHashedShapes.add(shape);
+                boolean unchanged = !pending.mSource.isRecycled()
+                        && pending.mSource.getGenerationId() == pending.mGenerationId;
+                mBitmaps.put(mHashes.get(unchanged ? pending.mSource : pending.mShared), pending.mShared);
+            }
+            String key = mHashes.get(bitmap);
+            shared = mBitmaps.get(key);
+            if (shared == null) {
+                shared = toImmutable(bitmap);
+                mBitmaps.put(key, shared);
+            } else {
+                LOG.v("getBitmap:", "found a bitmap with the same pixels:", key);
+            }
+        }
+        mEntries.put(bitmap, new Entry(generationId, shared));
+        return shared;
+    }
+
+    private static Bitmap toImmutable(Bitmap bitmap) {
+        if (!bitmap.isMutable()) return bitmap;
+        Bitmap copy = bitmap.copy(bitmap.getConfig(), false);
+        return copy == null ? bitmap : copy; // Copy failed.
+    }
+
+    private static boolean isSoftware(Bitmap bitmap) {
+        Bitmap.Config config = bitmap.getConfig();
+        if (config == null) return false;
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.O || config != Bitmap.Config.HARDWARE;
+    }
+}
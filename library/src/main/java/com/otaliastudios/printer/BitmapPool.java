@@ -0,0 +1,99 @@
+package com.otaliastudios.printer;
+
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A size-keyed pool of bitmaps, so that pages with the same output size
+ * can reuse the same buffers instead of allocating new ones.
+ *
+ * When the pool goes over its byte budget, the least recently released
+ * bitmaps are recycled.
+ * This is accessed by the encoder threads.
+ */
+class BitmapPool {
+
+    private static final String TAG = BitmapPool.class.getSimpleName();
+    private static final PrinterLogger LOG = PrinterLogger.create(TAG);
+
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<>();
+    private long mMaxBytes;
+    private long mBytes;
+
+    BitmapPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    /**
+     * Returns a cleared bitmap with the given size, or null if
+     * there is none and the caller should allocate it.
+     * Clearing a page bitmap is not cheap, so this should not be called in the UI thread.
+     *
+     * @param width the bitmap width
+     * @param height the bitmap height
+     * @return a bitmap or null
+     */
+    @Nullable
+    Bitmap get(int width, int height) {
+        Bitmap found = null;
+        synchronized (this) {
+            Iterator<Bitmap> iterator = mBitmaps.descendingIterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                    iterator.remove();
+                    mBytes -= bitmap.getByteCount();
+                    found = bitmap;
+                    break;
+                }
+            }
+        }
+        // Out of the lock, so other threads can use the pool meanwhile.
+        if (found != null) found.eraseColor(Color.TRANSPARENT);
+        return found;
+    }
+
+    /**
+     * Gives a bitmap back to the pool, so it can be reused.
+     * If it does not fit our budget, it is recycled.
+     *
+     * @param bitmap the bitmap to release
+     */
+    synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) return;
+        if (bitmap.getByteCount() > mMaxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mBytes += bitmap.getByteCount();
+        trim();
+    }
+
+    synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps) {
+            bitmap.recycle();
+        }
+        mBitmaps.clear();
+        mBytes = 0;
+    }
+
+    private void trim() {
+        while (mBytes > mMaxBytes && !mBitmaps.isEmpty()) {
+            Bitmap bitmap = mBitmaps.removeFirst();
+            mBytes -= bitmap.getByteCount();
+            LOG.v("trim:", "evicting bitmap", bitmap.getWidth(), "x", bitmap.getHeight());
+            bitmap.recycle();
+        }
+    }
+}
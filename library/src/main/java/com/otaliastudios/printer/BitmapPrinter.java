@@ -4,17 +4,24 @@ package com.otaliastudios.printer;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.drawable.Drawable;
+import android.graphics.Color;
+import android.graphics.DrawFilter;
+import android.graphics.Paint;
+import android.graphics.PaintFlagsDrawFilter;
+import android.graphics.Picture;
 import android.os.Build;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.view.View;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 
 abstract class BitmapPrinter extends Printer {
@@ -22,43 +29,31 @@ abstract class BitmapPrinter extends Printer {
     private static final String TAG = BitmapPrinter.class.getSimpleName();
     private static final PrinterLogger LOG = PrinterLogger.create(TAG);
 
-    /**
-     * Constant for {@link #setPrintPages(int...)} to say that we want to print
-     * all pages. This is actually the default.
-     */
-    public static final int PRINT_ALL = -1;
+    // Turns off subpixel positioning and kerning, and draws linear text, that is, without hinting.
+    private static final DrawFilter THUMBNAIL_FILTER = new PaintFlagsDrawFilter(
+            Paint.SUBPIXEL_TEXT_FLAG | Paint.DEV_KERN_TEXT_FLAG, Paint.LINEAR_TEXT_FLAG);
 
     private Bitmap.CompressFormat mCompressFormat;
-    private String mFormat;
-    private boolean mPrintAll;
-    private int[] mPrintable;
     private float mScale = 1f;
     private int mScaleMaxWidth = Integer.MAX_VALUE;
     private int mScaleMaxHeight = Integer.MAX_VALUE;
+    private int mMaxPagesInFlight = -1;
+    private int mBandHeight = 0;
+    private boolean mIncremental = false;
+    private boolean mThumbnails = false;
+    private int mContactSheetColumns = 0;
+    private RenderCache mCache;
+    private final BitmapPool mBitmapPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
 
+    // Contact sheets taller than this are split into several images.
+    private static final long MAX_CONTACT_SHEET_BYTES = Runtime.getRuntime().maxMemory() / 8;
+
+    // The compress format can be null for printers that do their own encoding.
     BitmapPrinter(int permissionCode,
-                  @NonNull Bitmap.CompressFormat compressFormat, @NonNull String format,
+                  @Nullable Bitmap.CompressFormat compressFormat, @NonNull String format,
                   @NonNull DocumentView document, @NonNull PrintCallback callback) {
-        super(permissionCode, document, callback);
+        super(permissionCode, format, document, callback);
         mCompressFormat = compressFormat;
-        mFormat = format.toLowerCase();
-        mPrintAll = true;
-    }
-
-    /**
-     * Sets the numbers of the pages which should be printed.
-     * To print all pages (which is the default), you can pass {@link #PRINT_ALL}
-     * as the only parameter.
-     *
-     * @param pageNumbers any number of pages to be printed
-     */
-    public void setPrintPages(int... pageNumbers) {
-        if (pageNumbers.length == 1 && pageNumbers[0] == PRINT_ALL) {
-            mPrintAll = true;
-        } else {
-            mPrintAll = false;
-            mPrintable = pageNumbers;
-        }
     }
 
     /**
@@ -95,104 +90,783 @@ abstract class BitmapPrinter extends Printer {
         mScaleMaxHeight = maxHeight;
     }
 
+    /**
+     * Sets the max number of pages that can be in flight at the same time, that is,
+     * rendered into their own bitmap but not encoded yet. When this limit is reached,
+     * the next page will be rendered only after one of the previous ones is written.
+     * This means that peak memory is bounded by this number of page bitmaps, no matter how
+     * long the document is. Defaults to the number of available processors plus one.
+     *
+     * This is also what keeps rendering from getting ahead of encoders: pages are
+     * never compressed in the UI thread.
+     *
+     * @param maxPages the max number of pages in flight, greater than 0
+     */
+    public void setMaxPagesInFlight(int maxPages) {
+        if (maxPages <= 0) {
+            throw new IllegalArgumentException("Max pages in flight must be > 0.");
+        }
+        mMaxPagesInFlight = maxPages;
+    }
+
+    /**
+     * Sets the budget, in bytes, for the pool of bitmaps that this printer keeps
+     * between pages and prints. Pages with the same output size will reuse these bitmaps
+     * instead of allocating new ones. When the pool goes over this budget, older bitmaps
+     * are released. Defaults to 1/8 of the max heap size.
+     *
+     * Pass 0 to disable pooling.
+     *
+     * @param maxBytes the pool budget in bytes
+     */
+    public void setBitmapPoolSize(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Bitmap pool size must be >= 0.");
+        }
+        mBitmapPool.setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Releases all the bitmaps that are currently held by the pool.
+     * This can be called, for example, when a batch of prints is over.
+     */
+    public void clearBitmapPool() {
+        mBitmapPool.clear();
+    }
+
+    /**
+     * Enables incremental printing. When enabled, pages whose content did not change since
+     * they were last printed to the same file, with the same settings, are not printed again,
+     * and their file is left untouched. {@link PrintCallback#onPrint(String, File)} is still
+     * called for them. Defaults to false.
+     *
+     * This only applies when printing to files. A page is considered changed if any of its
+     * views requested a layout, or if the text of a TextView changed. Other changes must be
+     * notified with {@link DocumentHelper#onContentChanged(View)}.
+     *
+     * @param incremental whether to skip unchanged pages
+     */
+    public void setPrintIncremental(boolean incremental) {
+        mIncremental = incremental;
+    }
+
+    /**
+     * Enables a memory cache of encoded pages, with the given budget in bytes.
+     * Before recording a page, we look for the same page content, with the same output options,
+     * in the cache: if found, its bytes are written instead of recording, drawing and compressing
+     * the page again. This is useful when the same document is printed to several targets,
+     * or printed again when only a few pages changed, without {@link #setPrintIncremental(boolean)}.
+     *
+     * Page contents are identified by their {@link DocumentView} content version, which only lives
+     * as long as the process, and is not shared by different pages with the same content.
+     * So the cache is not kept on disk, and can't help across restarts or between pages.
+     *
+     * The cache is shared by all printers. When it goes over the greatest budget among them,
+     * the least recently used pages are dropped. Tiled pages (see {@link #setBandHeight(int)})
+     * are never cached. Pass 0 to disable, which is the default.
+     *
+     * @param maxBytes the cache budget in bytes, or 0
+     */
+    public void setPrintCacheSize(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must be >= 0.");
+        }
+        if (maxBytes == 0) {
+            if (mCache != null) mCache.removeOwner(this);
+            mCache = null;
+        } else {
+            mCache = RenderCache.get();
+            mCache.setMaxBytes(this, maxBytes);
+        }
+    }
+
+    /**
+     * Returns the bytes currently held by the cache enabled with
+     * {@link #setPrintCacheSize(long)}, or 0 if it is disabled.
+     *
+     * @return the cache size in bytes
+     */
+    public long getPrintCacheBytes() {
+        return mCache == null ? 0 : mCache.getBytes();
+    }
+
+    /**
+     * Drops all pages from the cache enabled with {@link #setPrintCacheSize(long)}.
+     */
+    public void clearPrintCache() {
+        if (mCache != null) mCache.clear();
+    }
+
+    /**
+     * Enables the thumbnail mode, meant for small output sizes (see {@link #setPrintScale(float)}).
+     * This only changes how text is drawn into the output bitmap: subpixel positioning and
+     * kerning are turned off, and glyphs are scaled linearly instead of being hinted,
+     * since this makes no visible difference at thumbnail size.
+     * Pages are still recorded as usual, which costs the same at any scale. Defaults to false.
+     *
+     * @param thumbnails whether to use cheaper rendering
+     */
+    public void setPrintThumbnails(boolean thumbnails) {
+        mThumbnails = thumbnails;
+    }
+
+    /**
+     * Prints all the selected pages into a single image, as a grid with the given
+     * number of columns. Each cell has the page output size, so this is usually combined
+     * with a small scale and {@link #setPrintThumbnails(boolean)}. Pages are recorded
+     * a few per frame, then drawn into the sheet and compressed in the executor.
+     *
+     * If the grid would take more than 1/8 of the max heap size, it is split by rows
+     * into several sheets, which are drawn one at a time and named with a count suffix
+     * (e.g. file-1.png, file-2.png). Otherwise, the output file has no count suffix.
+     *
+     * Pass 0 to disable, which is the default.
+     *
+     * @param columns the number of columns, or 0
+     */
+    public void setPrintContactSheet(int columns) {
+        if (columns < 0) {
+            throw new IllegalArgumentException("Contact sheet columns must be >= 0.");
+        }
+        mContactSheetColumns = columns;
+    }
+
+    // Applies the thumbnail filter, if needed.
+    Canvas createCanvas(Bitmap bitmap) {
+        Canvas canvas = new Canvas(bitmap);
+        if (mThumbnails) canvas.setDrawFilter(THUMBNAIL_FILTER);
+        return canvas;
+    }
+
+    /**
+     * Enables tiled rendering, if {@link #supportsBands()}.
+     * Pages taller than the given height will be drawn in horizontal bands, which are
+     * streamed into the encoder one after the other.
+     *
+     * @param bandHeight the band height in output pixels, or 0 to disable
+     * @throws IllegalStateException if this printer does not support tiled rendering
+     */
+    void setBandHeight(int bandHeight) {
+        if (bandHeight < 0) {
+            throw new IllegalArgumentException("Band height must be >= 0.");
+        }
+        if (bandHeight > 0 && !supportsBands()) {
+            throw new IllegalStateException("This printer does not support tiled rendering.");
+        }
+        mBandHeight = bandHeight;
+    }
+
+    /**
+     * Whether this printer can encode pages in bands, that is, whether it implements
+     * {@link #createBandEncoder(OutputStream, int, int)}. Defaults to false.
+     *
+     * @return true if tiled rendering is supported
+     */
+    boolean supportsBands() {
+        return false;
+    }
+
     protected abstract int getPrintQuality();
 
-    @Override
-    public void print(final String printId, @NonNull final File directory, @NonNull String filename) {
+    /**
+     * Returns the format to be used when compressing pages.
+     * Printers can override this to choose it at print time.
+     *
+     * @return the compress format
+     */
+    Bitmap.CompressFormat getCompressFormat() {
+        return mCompressFormat;
+    }
+
+    /**
+     * Returns a bitmap of the given size, possibly reusing one from the pool.
+     * It should be given back with {@link #releaseBitmap(Bitmap)}.
+     * Pooled bitmaps are cleared, and new ones are allocated, so this should
+     * be called in the executor, not in the UI thread.
+     *
+     * @param width the bitmap width
+     * @param height the bitmap height
+     * @param stats the stats to be updated
+     * @return a bitmap
+     */
+    @WorkerThread
+    Bitmap obtainBitmap(int width, int height, PrintStats stats) {
+        Bitmap pooled = mBitmapPool.get(width, height);
+        synchronized (stats) {
+            if (pooled != null) {
+                stats.mBitmapPoolHits++;
+                return pooled;
+            }
+            stats.mBitmapPoolMisses++;
+            stats.mBitmapBytesAllocated += (long) width * height * 4;
+        }
+        if (Build.VERSION.SDK_INT >= 26) {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888, true);
+        } else {
+            return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    // Can be called from any thread.
+    void releaseBitmap(Bitmap bitmap) {
+        mBitmapPool.put(bitmap);
+    }
+
+    /**
+     * Compresses the bitmap into the stream. {@link Bitmap#compress(Bitmap.CompressFormat, int, OutputStream)}
+     * swallows the exceptions thrown by the stream, e.g. when the job is cancelled or the disk is full,
+     * and just returns false, so here we throw them again.
+     *
+     * @param bitmap the bitmap
+     * @param format the compress format
+     * @param quality the compress quality
+     * @param stream the output stream
+     * @throws IOException if writing fails, or the bitmap could not be compressed
+     */
+    static void compress(Bitmap bitmap, Bitmap.CompressFormat format, int quality,
+                         final OutputStream stream) throws IOException {
+        final IOException[] error = new IOException[1];
+        boolean success = bitmap.compress(format, quality, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{ (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                try {
+                    stream.write(b, off, len);
+                } catch (IOException e) {
+                    if (error[0] == null) error[0] = e;
+                    throw e;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                try {
+                    stream.flush();
+                } catch (IOException e) {
+                    if (error[0] == null) error[0] = e;
+                    throw e;
+                }
+            }
+        });
+        if (error[0] != null) throw error[0];
+        if (!success) throw new IOException("Could not compress the bitmap.");
+    }
+
+    /**
+     * Creates an encoder that accepts the page in bands, for tiled rendering.
+     * This is only called if {@link #supportsBands()} returns true.
+     *
+     * @param stream the output stream
+     * @param width the image width
+     * @param height the image height
+     * @return a band encoder
+     * @throws IOException if writing fails
+     */
+    BandEncoder createBandEncoder(OutputStream stream, int width, int height) throws IOException {
+        throw new IllegalStateException("This printer does not support tiled rendering.");
+    }
+
+    // Whether pages are drawn in bands, given the current output size.
+    private boolean isTiled() {
+        PrintSize size = mDocument.getPrintSize();
+        int height = (int) (size.heightPixels(mDocument.getContext()) * getOutputScale());
+        return mBandHeight > 0 && mBandHeight < height;
+    }
+
+    // Identifies the options that change the output, besides the page content.
+    private String getOutputOptions() {
+        Context context = mDocument.getContext();
+        PrintSize size = mDocument.getPrintSize();
+        float scale = getOutputScale();
+        int width = (int) (size.widthPixels(context) * scale);
+        int height = (int) (size.heightPixels(context) * scale);
+        return width + "x" + height + ":" + mPrintBackground + ":" + mThumbnails + ":" +
+                getCompressFormat() + ":" + getPrintQuality();
+    }
+
+    /**
+     * Returns the scale to be applied to pages, as set by {@link #setPrintScale(float)}
+     * and {@link #setPrintScale(int, int)}.
+     *
+     * @return the output scale
+     */
+    float getOutputScale() {
         Context context = mDocument.getContext();
-        if (!checkPermission(context, directory)) return;
-        if (!checkPreview(printId, directory, filename)) return;
+        PrintSize size = mDocument.getPrintSize();
+        float scale = mScale;
+        scale = Math.min(scale, (float) mScaleMaxWidth / size.widthPixels(context));
+        scale = Math.min(scale, (float) mScaleMaxHeight / size.heightPixels(context));
+        return scale;
+    }
+
+    @Override
+    void print(@NonNull PrintJob job, @NonNull PrintTarget target) {
+        if (!checkPreview(job, target)) return;
+        int[] pages = getPrintPages();
+        if (pages.length == 0) {
+            job.finish();
+            return;
+        }
+        job.setPageCount(pages.length);
+        if (mContactSheetColumns > 0) {
+            new ContactSheet(job, target, pages).record();
+        } else {
+            new Pipeline(job, target, pages).renderNext();
+        }
+    }
+
+    /**
+     * Records pages into a {@link Picture} on the UI thread, which is cheap, and passes them
+     * to the encoders, which draw them into bitmaps and compress them.
+     * At most {@link #setMaxPagesInFlight(int)} bitmaps are alive at the same time.
+     * When a page is encoded, its bitmap goes back to the pool and the next page is recorded.
+     */
+    private class Pipeline {
 
-        if (filename.toLowerCase().endsWith(mFormat)) {
-            filename = filename.substring(0, filename.length() - mFormat.length());
+        private final PrintJob mJob;
+        private final String mPrintId;
+        private final PrintTarget mTarget;
+        private final int[] mPages;
+        private final Handler mUi = new Handler();
+        private final Executor mEncoders = getExecutor();
+        private final PrintStats mStats;
+        private final int mMaxInFlight;
+
+        // These are only accessed in the UI thread.
+        private int mNext = 0;
+        private int mInFlight = 0;
+        private boolean mFailed = false;
+
+        private Pipeline(PrintJob job, PrintTarget target, int[] pages) {
+            mJob = job;
+            mPrintId = job.getId();
+            mTarget = target;
+            mPages = pages;
+            mStats = new PrintStats(pages);
+            mMaxInFlight = mMaxPagesInFlight > 0 ? mMaxPagesInFlight : Runtime.getRuntime().availableProcessors() + 1;
         }
-        if (mDocument.getPageCount() == 0) return;
 
+        private void renderNext() {
+            while (!mFailed && !mJob.isCancelled() && mNext < mPages.length && mInFlight < mMaxInFlight) {
+                if (render(mNext)) {
+                    mNext++;
+                    mInFlight++;
+                } else {
+                    mFailed = true; // Error!
+                }
+            }
+            if (mInFlight == 0 && (mFailed || mJob.isCancelled() || mNext == mPages.length)) {
+                LOG.i("print:", "all pages encoded.");
+                if (!mJob.isCancelled()) dispatchOnPrintStats(mJob, mStats);
+                mJob.finish();
+            }
+        }
 
-        final Handler ui = new Handler();
-        final HandlerThread thread = new HandlerThread(getClass().getSimpleName() + "Worker");
-        thread.start();
-        final Handler worker = new Handler(thread.getLooper());
+        private boolean render(final int index) {
+            final int page = mPages[index];
+            String suffix = mPages.length == 1 ? mFormat : "-" + (page + 1) + mFormat;
+            final File file = mTarget.getFile(suffix);
 
-        dispatchOnPrePrint(mDocument);
-        int count = mPrintAll ? mDocument.getPageCount() : mPrintable.length;
-        for (int i = 0; i < count; i++) {
-            final int page = mPrintAll ? i : mPrintable[i];
-            String suffix = count == 1 ? mFormat : "-" + (page + 1) + mFormat;
-            final File file = new File(directory, filename + suffix);
-            if (!checkFile(printId, file)) {
-                thread.quitSafely();
-                return; // Error!
+            // Check if the file is up to date.
+            long version = mDocument.getPageAt(page).getContentVersion();
+            String options = getOutputOptions();
+            final String exportKey = file == null ? null : file.getAbsolutePath() + ":" + options;
+            if (mIncremental && exportKey != null && file.exists()
+                    && mDocument.isPageExported(exportKey, version)) {
+                LOG.i("print:", "page", page, "is up to date, skipping.");
+                mStats.mPagesSkipped++;
+                mJob.onPagesRendered(1);
+                mJob.onPagesEncoded(1);
+                postResult(file, null, null, version, null);
+                return true;
             }
 
-            PrintSize size = mDocument.getPrintSize();
-            final Bitmap bitmap;
-            float realWidth = size.widthPixels(context);
-            float realHeight = size.heightPixels(context);
-            float scale = mScale;
-            scale = Math.min(scale, (float) mScaleMaxWidth / realWidth);
-            scale = Math.min(scale, (float) mScaleMaxHeight / realHeight);
-            final int outWidth = (int) (realWidth * scale);
-            final int outHeight = (int) (realHeight * scale);
-            if (Build.VERSION.SDK_INT >= 26) {
-                bitmap = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888, true);
+            long start = System.nanoTime();
+            if (file != null && !checkFile(mPrintId, file)) return false;
+            mStats.addTime(index, PrintStats.PHASE_FILE, start);
+
+            // If the cache has this content, we can skip recording and drawing.
+            RenderCache cache = mCache;
+            String cacheKey = cache == null || isTiled() ? null : RenderCache.key(version, options);
+            if (cacheKey != null && cache.contains(cacheKey)) {
+                copy(index, file, exportKey, version, cacheKey);
             } else {
-                bitmap = Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+                encode(index, file, exportKey, cacheKey);
             }
-            Canvas canvas = new Canvas(bitmap);
-            canvas.scale(scale, scale);
+            return true;
+        }
+
+        // Records the page on the UI thread, then draws and compresses it in the executor.
+        // If the cache key is not null, the result is stored in the cache.
+        private void encode(final int index, final File file, final String exportKey,
+                            @Nullable final String cacheKey) {
+            final int page = mPages[index];
+            Context context = mDocument.getContext();
+            PrintSize size = mDocument.getPrintSize();
+            float scale = getOutputScale();
+            int outWidth = (int) (size.widthPixels(context) * scale);
+            int outHeight = (int) (size.heightPixels(context) * scale);
             DocumentPage view = mDocument.getPageAt(page);
-            Drawable background = null;
-            if (!mPrintBackground) {
-                background = view.getBackground();
-                view.setBackground(null);
-            }
+            final long version = view.getContentVersion();
 
-            // Tried this to have shadows drawing but no success.
-            // view.setWillNotCacheDrawing(false);
-            // view.destroyDrawingCache();
-            // view.buildDrawingCache();
-            // canvas.drawBitmap(view.getDrawingCache(), 0, 0, null);
+            // Only record on the UI thread. Drawing to bitmap happens in the encoder.
+            final Picture picture = recordPage(view, mStats, index);
+            mJob.onPagesRendered(1);
+            dispatchOnPrintProgress(mJob);
+            final float pictureScale = scale;
+            final int width = outWidth;
+            final int height = outHeight;
+            final boolean tiled = isTiled();
+            final int bitmapHeight = tiled ? mBandHeight : outHeight;
 
-            view.draw(canvas);
-            if (!mPrintBackground) {
-                view.setBackground(background);
-            }
+            // Never blocks: the in-flight limit throttles the loop, and bounds the number of bitmaps.
+            mEncoders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Bitmap bitmap = obtainBitmap(width, bitmapHeight, mStats);
+                    Throwable error = null;
+                    Boolean cacheHit = null;
+                    // If cancelled, the stream throws and compress() returns early.
+                    long start = System.nanoTime();
+                    try (OutputStream stream = mJob.wrap(mTarget.open(mPrintId, page, file))) {
+                        mStats.addTime(index, PrintStats.PHASE_FILE, start);
+                        if (tiled) {
+                            encodeBands(index, picture, pictureScale, bitmap, width, height, stream);
+                        } else {
+                            start = System.nanoTime();
+                            Canvas canvas = createCanvas(bitmap);
+                            canvas.scale(pictureScale, pictureScale);
+                            picture.draw(canvas);
+                            mStats.addTime(index, PrintStats.PHASE_DRAW, start);
+                            start = System.nanoTime();
+                            cacheHit = compress(bitmap, cacheKey, stream);
+                            mStats.addTime(index, PrintStats.PHASE_ENCODE, start);
+                        }
+                    } catch (IOException e) {
+                        LOG.e("print:", "got error on page:", page, "error:", e);
+                        error = mTarget.error(page, file, e);
+                    } finally {
+                        releaseBitmap(bitmap);
+                    }
+                    boolean complete = error == null && !mJob.isCancelled();
+                    mJob.onFileClosed(file, complete);
+                    if (complete) mJob.onPagesEncoded(1);
+                    postResult(file, error, exportKey, version, cacheHit);
+                }
+            });
+        }
 
-            worker.post(new Runnable() {
+        // Writes the cached page in the executor. If the entry is gone in the meanwhile,
+        // we go back to the UI thread and encode the page as usual. The page might have
+        // changed by then, so the result is not cached.
+        private void copy(final int index, final File file, final String exportKey,
+                          final long version, final String cacheKey) {
+            final int page = mPages[index];
+            final RenderCache cache = mCache;
+            mJob.onPagesRendered(1);
+            dispatchOnPrintProgress(mJob);
+            mEncoders.execute(new Runnable() {
                 @Override
                 public void run() {
-                    try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file))) {
-                        bitmap.compress(mCompressFormat, getPrintQuality(), stream);
-                        bitmap.recycle();
-                        ui.post(new Runnable() {
+                    long start = System.nanoTime();
+                    byte[] bytes = cache.get(cacheKey);
+                    if (bytes == null) {
+                        mUi.post(new Runnable() {
                             @Override
                             public void run() {
-                                mCallback.onPrint(printId, file);
+                                mJob.onPagesRendered(-1);
+                                if (mJob.isCancelled()) {
+                                    mInFlight--;
+                                    renderNext();
+                                } else {
+                                    encode(index, file, exportKey, null);
+                                }
                             }
                         });
-
-                    } catch (final IOException e) {
+                        return;
+                    }
+                    Throwable error = null;
+                    try (OutputStream stream = mJob.wrap(mTarget.open(mPrintId, page, file))) {
+                        stream.write(bytes);
+                        mStats.addTime(index, PrintStats.PHASE_ENCODE, start);
+                    } catch (IOException e) {
                         LOG.e("print:", "got error on page:", page, "error:", e);
-                        ui.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                Throwable error = new RuntimeException("Invalid file: " + file, e);
-                                mCallback.onPrintFailed(printId, error);
-                            }
-                        });
+                        error = mTarget.error(page, file, e);
                     }
+                    boolean complete = error == null && !mJob.isCancelled();
+                    mJob.onFileClosed(file, complete);
+                    if (complete) mJob.onPagesEncoded(1);
+                    postResult(file, error, exportKey, version, true);
                 }
             });
         }
-        dispatchOnPostPrint(mDocument);
 
-        worker.post(new Runnable() {
-            @Override
-            public void run() {
-                LOG.i("print:", "done, closing worker thread.");
-                thread.quitSafely();
+        /**
+         * Draws the page in horizontal bands of {@link #setBandHeight(int)} rows,
+         * using a translated canvas over the same band bitmap. Each band is passed to
+         * the {@link BandEncoder} before the next one is drawn, so the page bitmap
+         * is never allocated as a whole.
+         */
+        private void encodeBands(int index, Picture picture, float scale, Bitmap band,
+                                 int width, int height, OutputStream stream) throws IOException {
+            BandEncoder encoder = createBandEncoder(stream, width, height);
+            Canvas canvas = createCanvas(band);
+            for (int top = 0; top < height; top += band.getHeight()) {
+                if (mJob.isCancelled()) return;
+                int rows = Math.min(band.getHeight(), height - top);
+                long start = System.nanoTime();
+                if (top > 0) band.eraseColor(Color.TRANSPARENT);
+                int count = canvas.save();
+                canvas.translate(0, -top);
+                canvas.scale(scale, scale);
+                picture.draw(canvas);
+                canvas.restoreToCount(count);
+                mStats.addTime(index, PrintStats.PHASE_DRAW, start);
+                start = System.nanoTime();
+                encoder.encode(band, rows);
+                mStats.addTime(index, PrintStats.PHASE_ENCODE, start);
             }
-        });
+            long start = System.nanoTime();
+            encoder.finish();
+            mStats.addTime(index, PrintStats.PHASE_ENCODE, start);
+        }
+
+        /**
+         * Compresses the bitmap, storing the result in the cache if there is a key.
+         *
+         * @return false if the page was stored in the cache, or null if there is no key
+         */
+        private Boolean compress(Bitmap bitmap, @Nullable String cacheKey, OutputStream stream) throws IOException {
+            Bitmap.CompressFormat format = getCompressFormat();
+            int quality = getPrintQuality();
+            RenderCache cache = RenderCache.get();
+            if (cacheKey == null) {
+                BitmapPrinter.compress(bitmap, format, quality, stream);
+                return null;
+            }
+            cache.compress(cacheKey, bitmap, format, quality, stream);
+            return false;
+        }
+
+        // Called from encoder threads when a page is done.
+        // If the export key is not null, we record the page version for incremental prints.
+        private void postResult(final File file, final Throwable error,
+                                final String exportKey, final long version,
+                                final Boolean cacheHit) {
+            mUi.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (cacheHit != null) {
+                        if (cacheHit) mStats.mCacheHits++;
+                        else mStats.mCacheMisses++;
+                    }
+                    if (mJob.isCancelled()) {
+                        // Don't notify.
+                    } else if (error == null) {
+                        if (exportKey != null) mDocument.setPageExported(exportKey, version);
+                        mCallback.onPrint(mPrintId, file);
+                        dispatchOnPrintProgress(mJob);
+                    } else {
+                        mCallback.onPrintFailed(mPrintId, error);
+                    }
+                    mInFlight--;
+                    renderNext();
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns how many pages fit in a single contact sheet, so that the sheet bitmap
+     * stays within the given bytes. Sheets have at least one row, even if it takes more.
+     *
+     * @param pages the number of pages
+     * @param columns the number of grid columns
+     * @param cellWidth the width of each page
+     * @param cellHeight the height of each page
+     * @param maxBytes the max bytes for a sheet bitmap
+     * @return the number of pages per sheet, at least 1
+     */
+    static int getCellsPerSheet(int pages, int columns, int cellWidth, int cellHeight, long maxBytes) {
+        columns = Math.max(1, columns);
+        long rowBytes = Math.max(1, (long) columns * Math.max(1, cellWidth) * Math.max(1, cellHeight) * 4);
+        long maxRows = Math.max(1, maxBytes / rowBytes);
+        long rows = Math.max(1, (pages + columns - 1) / columns);
+        return (int) Math.max(1, Math.min(rows, maxRows) * columns);
+    }
+
+    /**
+     * Records all pages on the UI thread, a few per frame, then draws them into a grid
+     * and compresses it in the executor. The grid is split into several sheets, so that
+     * each sheet bitmap stays within a fraction of the heap, no matter how long the document is.
+     * Sheets are drawn one after the other, and their bitmap is released right after.
+     */
+    private class ContactSheet {
+
+        private final PrintJob mJob;
+        private final String mPrintId;
+        private final PrintTarget mTarget;
+        private final int[] mPages;
+        private final Handler mUi = new Handler();
+        private final PrintStats mStats;
+        private final List<Picture> mPictures;
+        private final float mScale;
+        private final int mCellWidth;
+        private final int mCellHeight;
+        private final int mColumns;
+        private final int mCellsPerSheet;
+        private final File[] mFiles;
+
+        private ContactSheet(PrintJob job, PrintTarget target, int[] pages) {
+            mJob = job;
+            mPrintId = job.getId();
+            mTarget = target;
+            mPages = pages;
+            mStats = new PrintStats(pages);
+            mPictures = new ArrayList<>(pages.length);
+
+            Context context = mDocument.getContext();
+            PrintSize size = mDocument.getPrintSize();
+            mScale = getOutputScale();
+            mCellWidth = Math.max(1, (int) (size.widthPixels(context) * mScale));
+            mCellHeight = Math.max(1, (int) (size.heightPixels(context) * mScale));
+            mColumns = Math.min(mContactSheetColumns, pages.length);
+            mCellsPerSheet = getCellsPerSheet(pages.length, mColumns, mCellWidth, mCellHeight, MAX_CONTACT_SHEET_BYTES);
+            int sheets = (int) Math.ceil((float) pages.length / mCellsPerSheet);
+            mFiles = new File[sheets];
+            for (int i = 0; i < sheets; i++) {
+                mFiles[i] = mTarget.getFile(sheets == 1 ? mFormat : "-" + (i + 1) + mFormat);
+            }
+        }
+
+        private void record() {
+            long start = System.nanoTime();
+            for (File file : mFiles) {
+                if (file != null && !checkFile(mPrintId, file)) {
+                    mJob.finish();
+                    return; // Error!
+                }
+            }
+            mStats.addTime(-1, PrintStats.PHASE_FILE, start);
+            new FrameScheduler(FrameScheduler.DEFAULT_BUDGET, new FrameScheduler.Task() {
+                private int mNext = 0;
+
+                @Override
+                public boolean step() {
+                    if (mJob.isCancelled()) return false;
+                    // The document might have changed between frames. Missing pages are left blank.
+                    int index = mNext++;
+                    int page = mPages[index];
+                    mPictures.add(page < mDocument.getPageCount() ?
+                            recordPage(mDocument.getPageAt(page), mStats, index) : null);
+                    mJob.onPagesRendered(1);
+                    dispatchOnPrintProgress(mJob);
+                    return mNext < mPages.length;
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    if (mJob.isCancelled()) {
+                        for (File file : mFiles) mJob.onFileClosed(file, false);
+                        mJob.finish();
+                        return;
+                    }
+                    encode();
+                }
+            }).start();
+        }
+
+        private void encode() {
+            // Sheet bitmaps are not pooled: they are big and rarely reused.
+            for (int sheet = 0; sheet < mFiles.length; sheet++) {
+                int[] size = getSheetSize(sheet);
+                mStats.mBitmapBytesAllocated += (long) size[0] * size[1] * 4;
+            }
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int sheet = 0; sheet < mFiles.length; sheet++) {
+                        if (!encodeSheet(sheet)) return;
+                    }
+                    mUi.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (!mJob.isCancelled()) dispatchOnPrintStats(mJob, mStats);
+                            mJob.finish();
+                        }
+                    });
+                }
+            });
+        }
+
+        private int[] getSheetSize(int sheet) {
+            int cells = Math.min(mCellsPerSheet, mPictures.size() - sheet * mCellsPerSheet);
+            int rows = (int) Math.ceil((float) cells / mColumns);
+            return new int[]{ mColumns * mCellWidth, rows * mCellHeight };
+        }
+
+        // Called in the executor. Returns false if the process should stop.
+        private boolean encodeSheet(final int sheet) {
+            final File file = mFiles[sheet];
+            int first = sheet * mCellsPerSheet;
+            int last = Math.min(first + mCellsPerSheet, mPictures.size());
+            int[] size = getSheetSize(sheet);
+            Bitmap bitmap = Bitmap.createBitmap(size[0], size[1], Bitmap.Config.ARGB_8888);
+            Throwable error = null;
+            long start = System.nanoTime();
+            try (OutputStream stream = mJob.wrap(mTarget.open(mPrintId, sheet, file))) {
+                mStats.addTime(-1, PrintStats.PHASE_FILE, start);
+                Canvas canvas = createCanvas(bitmap);
+                for (int i = first; i < last; i++) {
+                    Picture picture = mPictures.get(i);
+                    if (picture == null) continue;
+                    start = System.nanoTime();
+                    int cell = i - first;
+                    int count = canvas.save();
+                    canvas.translate((cell % mColumns) * mCellWidth, (cell / mColumns) * mCellHeight);
+                    canvas.clipRect(0, 0, mCellWidth, mCellHeight);
+                    canvas.scale(mScale, mScale);
+                    picture.draw(canvas);
+                    canvas.restoreToCount(count);
+                    mStats.addTime(i, PrintStats.PHASE_DRAW, start);
+                    mPictures.set(i, null);
+                }
+                start = System.nanoTime();
+                compress(bitmap, getCompressFormat(), getPrintQuality(), stream);
+                mStats.addTime(-1, PrintStats.PHASE_ENCODE, start);
+            } catch (IOException e) {
+                LOG.e("print:", "got error on contact sheet:", sheet, "error:", e);
+                error = mTarget.error(sheet, file, e);
+            } finally {
+                bitmap.recycle();
+            }
+            final boolean complete = error == null && !mJob.isCancelled();
+            final Throwable failure = error;
+            mJob.onFileClosed(file, complete);
+            if (complete) mJob.onPagesEncoded(last - first);
+            if (!complete) {
+                // Remove the sheets that we did not get to.
+                for (int i = sheet + 1; i < mFiles.length; i++) mJob.onFileClosed(mFiles[i], false);
+            }
+            mUi.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mJob.isCancelled()) {
+                        mJob.finish();
+                    } else if (failure == null) {
+                        mCallback.onPrint(mPrintId, file);
+                        dispatchOnPrintProgress(mJob);
+                    } else {
+                        mCallback.onPrintFailed(mPrintId, failure);
+                        mJob.finish();
+                    }
+                }
+            });
+            return complete;
+        }
     }
 }
@@ -25,7 +25,7 @@ import java.util.List;
  */
 @SuppressLint("ViewConstructor")
 class DocumentColumn extends LinearLayout implements Container<DocumentPage, DocumentColumn>,
-        View.OnLayoutChangeListener {
+        View.OnLayoutChangeListener, ViewGroup.OnHierarchyChangeListener {
 
     private final static String TAG = DocumentColumn.class.getSimpleName();
     private PrinterLogger mLog;
@@ -35,7 +35,9 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
     private int mContentHeight;
     private int mColumnNumber;
 
-    private List<Runnable> mPostedActions = new ArrayList<>();
+    private boolean mReflowNeeded;
+    private int mRequestedSpace;
+    private int mCurrentHeight = -1; // Sum of child heights, or -1 if it must be computed again.
 
     DocumentColumn(@NonNull Context context, int pageNumber, int number, int widthBound, int heightBound) {
         super(context);
@@ -44,6 +46,7 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
         mHeightBound = heightBound;
         setOrientation(VERTICAL);
         addOnLayoutChangeListener(this);
+        setOnHierarchyChangeListener(this);
         mLog = PrinterLogger.create(TAG + "-" + pageNumber + "-" + number);
     }
 
@@ -56,6 +59,7 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
     void setBounds(int widthBound, int heightBound) {
         mWidthBound = widthBound;
         mHeightBound = heightBound;
+        mCurrentHeight = -1;
         if (isLaidOut()) requestLayout();
     }
 
@@ -63,6 +67,14 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
         return mHeightBound != ViewGroup.LayoutParams.WRAP_CONTENT;
     }
 
+    int getWidthBound() {
+        return mWidthBound;
+    }
+
+    int getHeightBound() {
+        return mHeightBound;
+    }
+
     //endregion
 
     //region Views
@@ -126,6 +138,9 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
         mLog.i("takeFirst:", "view:", Utils.mark(view), "taking.");
         if (isInLayout()) {
             addViewInLayout(view, 0, params);
+        } else if (deferLayout()) {
+            addViewInLayout(view, 0, params, true);
+            onAttach(view);
         } else {
             addView(view, 0, params);
         }
@@ -136,6 +151,9 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
         mLog.i("take:", "view:", Utils.mark(view), "taking.");
         if (isInLayout()) {
             addViewInLayout(view, getChildCount(), params);
+        } else if (deferLayout()) {
+            addViewInLayout(view, getChildCount(), params, true);
+            onAttach(view);
         } else {
             addView(view, getChildCount(), params);
         }
@@ -144,12 +162,25 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
     @Override
     public void addView(View child, int index, ViewGroup.LayoutParams params) {
         super.addView(child, index, params);
+        onAttach(child);
+    }
+
+    private void onAttach(View child) {
         if (child instanceof Documentable) {
             Documentable doc = (Documentable) child;
             doc.onAttach(getRoot().getNumber(), getNumber());
         }
     }
 
+    // When the pager is adding many views at once, it requests a single layout at the end.
+    private boolean deferLayout() {
+        DocumentPage page = getRoot();
+        DocumentPager pager = page == null ? null : page.getRoot();
+        if (pager == null || !pager.isBatching()) return false;
+        pager.deferLayout(this);
+        return true;
+    }
+
     //endregion
 
     //region canTake?
@@ -167,7 +198,10 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
      */
     @Override
     public boolean canTake(View view, ViewGroup.LayoutParams params, boolean asEmpty) {
-        if (params != view.getLayoutParams()) view.setLayoutParams(params);
+        if (params != view.getLayoutParams()) {
+            view.setLayoutParams(params);
+            if (contains(view)) mCurrentHeight = -1;
+        }
 
         if (!isBounded()) {
             mLog.v("canTake:", "we can, because not bounded.");
@@ -176,7 +210,11 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
 
         int ourHeight = asEmpty ? 0 : getCurrentHeight();
 
-        int viewHeight = Utils.tryGetHeight(view, mHeightBound, false);
+        // The same view is checked more than once while it is passed around, so its height
+        // is cached. Entries are cleared when views are removed, so this is only reused
+        // until the view gets a place.
+        int viewHeight = Utils.getCachedHeight(view, mWidthBound, mHeightBound);
+        if (viewHeight == -1) viewHeight = Utils.tryGetHeight(view, mHeightBound, false);
         if (viewHeight == -1) {
             if (view instanceof AutoSplitView) {
                 // We can take an AutoSplitView if the available space is enough for a single line,
@@ -189,6 +227,7 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
             } else {
                 measureChildForHeight(view);
                 viewHeight = Utils.tryGetHeight(view, mHeightBound, true);
+                Utils.setCachedHeight(view, mWidthBound, mHeightBound, viewHeight);
             }
         }
 
@@ -209,24 +248,98 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
     }
 
     // This is a delicate point where it's common to make assumptions that are not true.
-    // Unfortunately, this is possibly not efficient, but I don't think it can't be better.
     // We are not even sure that all our views were measured: some of them lose their measured values
-    // after releasing.
-    private int getCurrentHeight() {
-        int height = 0;
-        for (int i = 0; i < getChildCount(); i++) {
-            View child = getChildAt(i);
-            int childHeight = Utils.tryGetHeight(child, mHeightBound, true);
-            if (childHeight == -1) {
+    // after releasing. So child heights are cached in view tags, and their sum is kept up to date
+    // as children are added and removed. Entries are dropped when the child is laid out with a
+    // different height, and checked against layout params, margins and bounds when read.
+    // The sum is dropped when children change or move, and when we are measured again: margins
+    // changed in place move no child, but they are picked up by the next layout pass.
+    int getCurrentHeight() {
+        if (mCurrentHeight == -1) {
+            int height = 0;
+            for (int i = 0; i < getChildCount(); i++) {
+                height += getChildHeight(getChildAt(i));
+            }
+            mCurrentHeight = height;
+        }
+        return mCurrentHeight;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        mCurrentHeight = -1;
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    }
+
+    private int getChildHeight(View child) {
+        int height = Utils.getCachedHeight(child, mWidthBound, mHeightBound);
+        if (height == -1) {
+            height = Utils.tryGetHeight(child, mHeightBound, true);
+            if (height == -1) {
                 // TODO: does this make sense for AutoSplit views?
                 measureChildForHeight(child);
-                childHeight = Utils.tryGetHeight(child, mHeightBound, true);
+                height = Utils.tryGetHeight(child, mHeightBound, true);
             }
-            height += childHeight;
+            Utils.setCachedHeight(child, mWidthBound, mHeightBound, height);
+        }
+        return height;
+    }
+
+    // The height taken by the children that come before the given one.
+    int getHeightBefore(View child) {
+        int height = 0;
+        for (int i = 0; i < getChildCount(); i++) {
+            View current = getChildAt(i);
+            if (current == child) break;
+            height += getChildHeight(current);
         }
         return height;
     }
 
+    /**
+     * Drops all cached heights. To be called when some child is going to change
+     * its height, but we don't know which one.
+     */
+    void invalidateHeight() {
+        for (int i = 0; i < getChildCount(); i++) {
+            Utils.clearCachedHeight(getChildAt(i));
+        }
+        mCurrentHeight = -1;
+    }
+
+    @Override
+    public void onChildViewAdded(View parent, View child) {
+        child.addOnLayoutChangeListener(mChildLayoutListener);
+        if (mCurrentHeight != -1) mCurrentHeight += getChildHeight(child);
+    }
+
+    @Override
+    public void onChildViewRemoved(View parent, View child) {
+        child.removeOnLayoutChangeListener(mChildLayoutListener);
+        int height = Utils.getCachedHeight(child, mWidthBound, mHeightBound);
+        if (mCurrentHeight != -1 && height != -1) {
+            mCurrentHeight -= height;
+        } else {
+            mCurrentHeight = -1;
+        }
+        Utils.clearCachedHeight(child);
+    }
+
+    // A child was laid out. If its height changed, so did the content. If it moved,
+    // margins might have changed.
+    private final OnLayoutChangeListener mChildLayoutListener = new OnLayoutChangeListener() {
+        @Override
+        public void onLayoutChange(View view, int left, int top, int right, int bottom,
+                                   int oldLeft, int oldTop, int oldRight, int oldBottom) {
+            if (bottom - top != oldBottom - oldTop) {
+                Utils.clearCachedHeight(view);
+                mCurrentHeight = -1;
+            } else if (top != oldTop) {
+                mCurrentHeight = -1;
+            }
+        }
+    };
+
     //endregion
 
     //region Remove childs that have grown, pass back childs that did shrink
@@ -236,17 +349,10 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
     // to be too small. See DocumentTextHelper.
     // Go out of the layout pass... see onSpaceAvailable
     void requestSpace(final int space) {
-        mLog.i("requestSpace:", "a children would like", space, "pixels more.", "Posting.");
-        Runnable action = new Runnable() {
-            @Override
-            public void run() {
-                mLog.w("requestSpace:", "a children would like", space, "pixels more.", "Dispatching.");
-                if (isAttachedToWindow()) dispatchOnSpaceOver(space);
-                mPostedActions.remove(this);
-            }
-        };
-        mPostedActions.add(action);
-        post(action);
+        mLog.i("requestSpace:", "a children would like", space, "pixels more.", "Requesting reflow.");
+        invalidateHeight();
+        mRequestedSpace = Math.max(mRequestedSpace, space);
+        requestReflow();
     }
 
     /**
@@ -275,21 +381,62 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
 
         // Go out of the layout pass, it's not safe to pass views around during layout,
         // even if you use addViewInLayout or removeViewInLayout.
-        Runnable action = new Runnable() {
-            @Override
-            public void run() {
-                if (space > 0) {
-                    mLog.w("onLayoutChange:", "dispatching onSpaceAvailable.", space);
-                    if (isAttachedToWindow()) dispatchOnSpaceAvailable(space);
-                } else {
-                    mLog.w("onLayoutChange:", "dispatching onSpaceOver.", -space);
-                    if (isAttachedToWindow()) dispatchOnSpaceOver(-space);
-                }
-                mPostedActions.remove(this);
+        requestReflow();
+    }
+
+    // The pager will call reflow() on us, together with other columns that changed in this frame.
+    private void requestReflow() {
+        mReflowNeeded = true;
+        DocumentPage page = getRoot();
+        DocumentPager pager = page == null ? null : page.getRoot();
+        if (pager != null) pager.requestReflow(this);
+    }
+
+    /**
+     * Dispatches space events, if our content changed since the last time we did.
+     * This is called by the pager, outside of the layout pass, possibly after other columns
+     * have passed views to us. Since the next layout did not happen yet, children that
+     * requested a layout are measured again.
+     *
+     * @return true if views might have been moved
+     */
+    boolean reflow() {
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.isLayoutRequested()) {
+                measureChildForHeight(child);
+                Utils.setCachedHeight(child, mWidthBound, mHeightBound, Utils.tryGetHeight(child, mHeightBound, true));
+                mCurrentHeight = -1;
             }
-        };
-        mPostedActions.add(action);
-        post(action);
+        }
+        int oldHeight = mContentHeight;
+        mContentHeight = getCurrentHeight();
+        boolean changed = mReflowNeeded || mContentHeight != oldHeight;
+        int requested = mRequestedSpace;
+        mReflowNeeded = false;
+        mRequestedSpace = 0;
+        if (!changed || !isBounded()) return false;
+        if (getViewCount() == 0) {
+            getRoot().onEmpty(this);
+            return false;
+        }
+
+        int space = mHeightBound - mContentHeight;
+        mLog.i("reflow:", "oldHeight:", oldHeight, "newHeight:", mContentHeight, "space:", space, "requested:", requested);
+        if (requested > 0) {
+            mLog.w("reflow:", "dispatching onSpaceOver.", requested);
+            dispatchOnSpaceOver(requested);
+        } else if (space < 0) {
+            mLog.w("reflow:", "dispatching onSpaceOver.", -space);
+            dispatchOnSpaceOver(-space);
+        } else if (space > 0) {
+            mLog.w("reflow:", "dispatching onSpaceAvailable.", space);
+            dispatchOnSpaceAvailable(space);
+        } else {
+            return false;
+        }
+        mContentHeight = getCurrentHeight();
+        return true;
     }
 
     @Override
@@ -322,9 +469,8 @@ class DocumentColumn extends LinearLayout implements Container<DocumentPage, Doc
             list.add(view);
             view = getViewAt(0);
         }
-        for (Runnable action : mPostedActions) {
-            removeCallbacks(action);
-        }
+        mReflowNeeded = false;
+        mRequestedSpace = 0;
         return list;
     }
 
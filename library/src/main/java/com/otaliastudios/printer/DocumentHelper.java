@@ -1,9 +1,12 @@
 package com.otaliastudios.printer;
 
 
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewParent;
+import android.widget.TextView;
 
 /**
  * Static utilities for views that might become smaller than they would like to,
@@ -73,7 +76,52 @@ public class DocumentHelper {
         });
     }
 
-    private static DocumentColumn findContainer(View view) {
+    /**
+     * Notifies the {@link DocumentView} that the content of this view changed, in a way
+     * that did not need a new layout: for example, an image was replaced by another one
+     * of the same size. Layout and text changes are detected automatically.
+     *
+     * This is used by incremental printing to know which pages must be printed again.
+     *
+     * @param view The view that changed
+     */
+    public static void onContentChanged(View view) {
+        DocumentColumn column = findContainer(view);
+        DocumentPage page = column == null ? null : column.getRoot();
+        if (page != null) page.onContentChanged();
+    }
+
+    // Text changes don't need a layout if the view size does not change,
+    // so we watch TextViews in the page. The page is looked up when text changes,
+    // since views are passed around between pages.
+    static void watchText(View view) {
+        if (view instanceof TextView) {
+            final TextView text = (TextView) view;
+            if (text.getTag(R.id.contentWatcher) == null) {
+                TextWatcher watcher = new TextWatcher() {
+                    @Override
+                    public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+                    @Override
+                    public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+                    @Override
+                    public void afterTextChanged(Editable s) {
+                        onContentChanged(text);
+                    }
+                };
+                text.setTag(R.id.contentWatcher, watcher);
+                text.addTextChangedListener(watcher);
+            }
+        } else if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                watchText(group.getChildAt(i));
+            }
+        }
+    }
+
+    static DocumentColumn findContainer(View view) {
         View current = view;
         while (true) {
             ViewParent parent = current.getParent();
@@ -28,6 +28,12 @@ class DocumentPage extends LinearLayout implements Container<DocumentPager, Docu
     private int mPageWidth;
     private int mPageHeight;
 
+    // Global, so that versions are never shared by two pages, even after a page is recreated.
+    private static long sContentVersions = 0;
+    private long mContentVersion = ++sContentVersions;
+    private boolean mPrinting;
+    private boolean mHiding;
+
     DocumentPage(@NonNull Context context, int number, int columns, PrintSize size) {
         super(context);
         setBackgroundColor(Color.WHITE);
@@ -77,6 +83,64 @@ class DocumentPage extends LinearLayout implements Container<DocumentPager, Docu
         return mPageNumber;
     }
 
+    /**
+     * Returns a number that changes each time this page, or any of its descendants,
+     * requests a layout or is laid out, or when the text of a descendant TextView changes.
+     * Other changes must be notified with {@link DocumentHelper#onContentChanged(View)}.
+     * Simple redraws, like cursor blinks, ripples or animations, don't count.
+     * Printers can compare this with the value they had at the last export,
+     * to know whether the page must be printed again.
+     *
+     * @return the content version
+     */
+    long getContentVersion() {
+        return mContentVersion;
+    }
+
+    /**
+     * Printers call this around drawing, so that the changes they make (e.g. removing
+     * the background) and the ones made by {@link Printable} views do not count as content changes.
+     *
+     * @param printing whether we are being printed
+     */
+    void setPrinting(boolean printing) {
+        mPrinting = printing;
+    }
+
+    /**
+     * Shows or hides this page when it enters or leaves the visible window.
+     * Hidden pages keep their size, so this does not trigger a layout, and
+     * the visibility change does not count as a content change.
+     *
+     * @param shown whether the page should be drawn
+     */
+    void setShown(boolean shown) {
+        int visibility = shown ? VISIBLE : INVISIBLE;
+        if (getVisibility() == visibility) return;
+        mHiding = true;
+        setVisibility(visibility);
+        mHiding = false;
+    }
+
+    void onContentChanged() {
+        if (!mPrinting && !mHiding) mContentVersion = ++sContentVersions;
+    }
+
+    // Descendants don't call this if we already requested a layout, so we count the layout too.
+    @Override
+    public void requestLayout() {
+        onContentChanged();
+        super.requestLayout();
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        onContentChanged();
+        // Views might have been added since the last layout.
+        DocumentHelper.watchText(this);
+    }
+
     void setPageElevation(float elevation) {
         // Set up page elevation. Page must have enough margin to show it.
         if (Build.VERSION.SDK_INT >= 21) setElevation(elevation);
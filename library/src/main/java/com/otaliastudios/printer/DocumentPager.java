@@ -1,6 +1,7 @@
 package com.otaliastudios.printer;
 
 import android.content.Context;
+import android.graphics.RectF;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -9,7 +10,9 @@ import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 
 class DocumentPager extends LinearLayout implements Container<DocumentPager, DocumentPage> {
@@ -36,6 +39,24 @@ class DocumentPager extends LinearLayout implements Container<DocumentPager, Doc
 
     private final Object mLock = new Object();
 
+    private boolean mBatching;
+    private final Set<DocumentColumn> mDeferredColumns = new LinkedHashSet<>();
+
+    private final Set<DocumentColumn> mDirtyColumns = new LinkedHashSet<>();
+    private boolean mReflowPosted;
+
+    private boolean mHideOffscreenPages = false;
+    private final RectF mViewport = new RectF();
+    private int mShownFirst = 0;
+    private int mShownLast = -1;
+    private final Runnable mReflowAction = new Runnable() {
+        @Override
+        public void run() {
+            mReflowPosted = false;
+            reflow();
+        }
+    };
+
     public DocumentPager(@NonNull Context context) {
         super(context);
         mPages = new ArrayList<>();
@@ -284,6 +305,47 @@ class DocumentPager extends LinearLayout implements Container<DocumentPager, Doc
         return true;
     }
 
+    /**
+     * Takes all the given views, in order, as if {@link #take(View, ViewGroup.LayoutParams)}
+     * was called for each of them. While this runs, columns add views without requesting
+     * a layout, and we request a single layout for each of them at the end.
+     *
+     * @param views incoming views, with their layout params
+     */
+    void takeAll(List<? extends View> views) {
+        LOG.i("takeAll:", "taking", views.size(), "views.");
+        beginBatch();
+        try {
+            for (View view : views) {
+                take(view, view.getLayoutParams());
+            }
+        } finally {
+            endBatch();
+        }
+    }
+
+    // Until endBatch() is called, columns will add views without requesting a layout.
+    void beginBatch() {
+        mBatching = true;
+    }
+
+    void endBatch() {
+        mBatching = false;
+        for (DocumentColumn column : mDeferredColumns) {
+            column.requestLayout();
+        }
+        mDeferredColumns.clear();
+    }
+
+    boolean isBatching() {
+        return mBatching;
+    }
+
+    // Called by columns that added a view without requesting a layout during a batch.
+    void deferLayout(DocumentColumn column) {
+        mDeferredColumns.add(column);
+    }
+
     @Override
     public void takeFirst(View view, ViewGroup.LayoutParams params) {
         ensureFirstPage();
@@ -316,8 +378,215 @@ class DocumentPager extends LinearLayout implements Container<DocumentPager, Doc
         }
     }
 
+    //region Reflow
+
+    /**
+     * Called by columns whose content changed size, or that need more space.
+     * Columns are collected until the next message, and then reflowed together.
+     *
+     * @param column the dirty column
+     */
+    void requestReflow(DocumentColumn column) {
+        mDirtyColumns.add(column);
+        if (!mReflowPosted) {
+            mReflowPosted = true;
+            post(mReflowAction);
+        }
+    }
+
+    /**
+     * Resolves all space events in a single pass, in document order. When a column passes or
+     * fetches views, its neighbours are checked right away, instead of waiting for them
+     * to be laid out: this way, a change at the top of a long document moves all the content
+     * that needs to be moved, before the next layout.
+     */
+    private void reflow() {
+        long start = System.nanoTime();
+        int depth = 0;
+        int maxDepth = 2 * mPages.size() * mPageColumns + 16;
+        beginBatch();
+        try {
+            DocumentColumn column;
+            while ((column = nextDirtyColumn()) != null) {
+                if (!column.reflow()) continue;
+                // Views were moved, neighbours might have changed too.
+                int index = indexOf(column);
+                DocumentColumn previous = getColumnAt(index - 1);
+                DocumentColumn next = getColumnAt(index + 1);
+                if (previous != null) mDirtyColumns.add(previous);
+                if (next != null) mDirtyColumns.add(next);
+                if (++depth >= maxDepth) {
+                    LOG.e("reflow:", "too many steps. Giving up, layout will try again.");
+                    mDirtyColumns.clear();
+                    break;
+                }
+            }
+        } finally {
+            endBatch();
+        }
+        long nanos = System.nanoTime() - start;
+        LOG.i("reflow:", "depth:", depth, "took", nanos / 1000, "us.");
+        if (depth > 0 && mCallback instanceof DocumentReflowCallback) {
+            ((DocumentReflowCallback) mCallback).onDocumentReflow(depth, nanos);
+        }
+    }
+
+    // Removes and returns the dirty column that comes first in the document.
+    // Columns that were removed in the meanwhile are dropped.
+    @Nullable
+    private DocumentColumn nextDirtyColumn() {
+        DocumentColumn first = null;
+        int firstIndex = Integer.MAX_VALUE;
+        List<DocumentColumn> removed = new ArrayList<>();
+        for (DocumentColumn column : mDirtyColumns) {
+            int index = indexOf(column);
+            if (index < 0) {
+                removed.add(column);
+            } else if (index < firstIndex) {
+                first = column;
+                firstIndex = index;
+            }
+        }
+        mDirtyColumns.removeAll(removed);
+        if (first != null) mDirtyColumns.remove(first);
+        return first;
+    }
+
+    // The position of this column in the document, or -1 if it is not ours anymore.
+    private int indexOf(DocumentColumn column) {
+        if (!(column.getParent() instanceof DocumentPage)) return -1;
+        int page = mPages.indexOf(column.getRoot());
+        return page < 0 ? -1 : page * mPageColumns + column.getNumber() - 1;
+    }
+
+    @Nullable
+    private DocumentColumn getColumnAt(int index) {
+        if (index < 0 || index >= mPages.size() * mPageColumns) return null;
+        return mPages.get(index / mPageColumns).getChildren().get(index % mPageColumns);
+    }
+
+    //endregion
+
+    //region Viewport
+
+    void setHideOffscreenPages(boolean hide) {
+        if (hide == mHideOffscreenPages) return;
+        mHideOffscreenPages = hide;
+        if (hide) {
+            updatePageVisibility(true);
+        } else {
+            synchronized (mLock) {
+                for (DocumentPage page : mPages) {
+                    page.setShown(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called by the document view when the zoom or pan change, with the visible
+     * window in our coordinates. Pages far from it are hidden, see {@link #updatePageVisibility(boolean)}.
+     */
+    void setViewport(float left, float top, float right, float bottom) {
+        mViewport.set(left, top, right, bottom);
+        if (mHideOffscreenPages) updatePageVisibility(false);
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        // Pages might have moved, or been added. Check them all.
+        if (mHideOffscreenPages) updatePageVisibility(true);
+    }
+
+    /**
+     * Hides pages that do not intersect the viewport, extended by one viewport in each direction,
+     * so that draw traversals can skip them. This only saves drawing: hidden pages keep their
+     * size and their content, and are still measured and laid out, so that pagination keeps
+     * working as usual.
+     * Pages that have focus, or were never laid out, are always shown.
+     *
+     * Since pages are laid out in order, the visible ones are found with a binary search.
+     * Unless all is true, we only visit them and the ones that were visible before.
+     *
+     * @param all whether to visit all pages, e.g. after they moved
+     */
+    private void updatePageVisibility(boolean all) {
+        if (mViewport.isEmpty()) return;
+        float marginX = mViewport.width();
+        float marginY = mViewport.height();
+        float left = mViewport.left - marginX;
+        float top = mViewport.top - marginY;
+        float right = mViewport.right + marginX;
+        float bottom = mViewport.bottom + marginY;
+        boolean vertical = getOrientation() == VERTICAL;
+        synchronized (mLock) {
+            int first = findFirstPage(vertical ? top : left, vertical);
+            int last = findLastPage(vertical ? bottom : right, vertical);
+            int from = all ? 0 : Math.min(first, mShownFirst);
+            int to = all ? mPages.size() - 1 : Math.max(last, mShownLast);
+            to = Math.min(to, mPages.size() - 1);
+            for (int i = from; i <= to; i++) {
+                DocumentPage page = mPages.get(i);
+                boolean show = !hasLayout(page) || page.hasFocus() ||
+                        (i >= first && i <= last &&
+                        page.getRight() >= left && page.getLeft() <= right &&
+                        page.getBottom() >= top && page.getTop() <= bottom);
+                page.setShown(show);
+            }
+            mShownFirst = first;
+            mShownLast = last;
+            LOG.v("updatePageVisibility:", "showing pages", first, "to", last, "out of", mPages.size());
+        }
+    }
+
+    // Returns the first page that ends after the given position.
+    // Pages that were never laid out come last, and are never before the position.
+    private int findFirstPage(float position, boolean vertical) {
+        int low = 0, high = mPages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            DocumentPage page = mPages.get(mid);
+            int end = vertical ? page.getBottom() : page.getRight();
+            if (end > 0 && end < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Returns the last page that starts before the given position, or -1.
+    // Pages that were never laid out come last, and are always after the position.
+    private int findLastPage(float position, boolean vertical) {
+        int low = 0, high = mPages.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            DocumentPage page = mPages.get(mid);
+            int start = vertical ? page.getTop() : page.getLeft();
+            int end = vertical ? page.getBottom() : page.getRight();
+            if (end > 0 && start <= position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    // Not View.isLaidOut(): that stays true while a new layout is pending.
+    private static boolean hasLayout(View view) {
+        return view.getWidth() > 0 && view.getHeight() > 0 && !view.isLayoutRequested();
+    }
+
+    //endregion
+
     @Override
     public List<View> collect() {
+        mDirtyColumns.clear();
+        removeCallbacks(mReflowAction);
+        mReflowPosted = false;
         List<View> list = new ArrayList<>();
         synchronized (mLock) {
             for (DocumentPage page : mPages) {
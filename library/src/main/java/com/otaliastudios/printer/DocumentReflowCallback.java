@@ -0,0 +1,22 @@
+package com.otaliastudios.printer;
+
+import android.support.annotation.UiThread;
+
+/**
+ * A {@link DocumentCallback} that also wants to be notified about reflows.
+ * If the callback passed to {@link DocumentView#setDocumentCallback(DocumentCallback)}
+ * implements this interface, {@link #onDocumentReflow(int, long)} will be called.
+ */
+public interface DocumentReflowCallback extends DocumentCallback {
+
+    /**
+     * Notifies that views were moved between columns and pages, because some content
+     * changed its size. All the moves caused by the changes of a single frame are resolved
+     * in one pass, before the next layout.
+     *
+     * @param depth the number of columns that had to pass or fetch views
+     * @param nanos the time spent, in nanoseconds
+     */
+    @UiThread
+    void onDocumentReflow(int depth, long nanos);
+}
@@ -3,6 +3,7 @@ package com.otaliastudios.printer;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.support.annotation.AttrRes;
@@ -23,7 +24,9 @@ import com.otaliastudios.zoom.ZoomLayout;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static android.view.ViewGroup.LayoutParams.WRAP_CONTENT;
 
@@ -39,7 +42,7 @@ import static android.view.ViewGroup.LayoutParams.WRAP_CONTENT;
  * collecting all the views, removing them, and adding them to a new shaped layout.
  * The same is true for other APIs as well.
  */
-public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListener, DocumentCallback {
+public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListener, DocumentReflowCallback {
 
     // Internal note: the whole hierarchy currently relies on the fact that all columns are equal
     // Think for example of the Untakable flag which is persisted among columns.
@@ -68,10 +71,21 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
     @IntDef({ PAGER_TYPE_HORIZONTAL, PAGER_TYPE_VERTICAL })
     public @interface PagerType {}
 
+    // Max number of outputs whose version is remembered for incremental prints.
+    private final static int MAX_EXPORTED_PAGES = 512;
+
     private DocumentCallback mCallback;
     private DocumentPager mPager;
     private PrintSize mSize;
     private View mFocusedView;
+    private final PrintScheduler mPrintScheduler = new PrintScheduler();
+    private final Map<String, Long> mExportedVersions = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            // Versions are never reused, so dropping an entry can only cost a print.
+            return size() > MAX_EXPORTED_PAGES;
+        }
+    };
 
     public DocumentView(@NonNull Context context) {
         this(context, null);
@@ -161,6 +175,26 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
         }
     }
 
+    /**
+     * Adds all the given views at the end of the document, in this order.
+     * This is equivalent to calling {@link #addView(View)} for each of them, but much faster
+     * when adding a lot of content at once (for example, a long report built programmatically):
+     * each view is measured once, page and column breaks are computed in a single pass,
+     * and a single layout is requested at the end.
+     *
+     * Views with no layout params get the default ones, as in {@link #addView(View)}.
+     *
+     * @param views the views to be added
+     */
+    public void addViews(@NonNull List<? extends View> views) {
+        int count = mPager.getViewCount();
+        for (View view : views) {
+            if (view.getLayoutParams() == null) view.setLayoutParams(generateDefaultLayoutParams());
+            Utils.mark(view, ++count);
+        }
+        mPager.takeAll(views);
+    }
+
     /**
      * Sets an orientation value for our pager, either {@link #PAGER_TYPE_VERTICAL}
      * or {@link #PAGER_TYPE_HORIZONTAL}.
@@ -215,6 +249,19 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
         mPager.setPageBackground(drawable);
     }
 
+    /**
+     * Sets whether pages that are far from the visible window should be hidden,
+     * so that drawing long documents only costs as much as the visible pages.
+     * Hidden pages are still measured, laid out and printed as usual, but they will be
+     * blank if you draw this view yourself, e.g. with {@link View#draw(android.graphics.Canvas)} or a screenshot.
+     * Defaults to false.
+     *
+     * @param hide whether to hide offscreen pages
+     */
+    public void setHideOffscreenPages(boolean hide) {
+        mPager.setHideOffscreenPages(hide);
+    }
+
     /**
      * Zooms to the real size, where 1 inch of content equals
      * 1 inch of the display.
@@ -254,9 +301,7 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
     private void setColumnsPerPageSync(int columnsPerPage) {
         List<View> collectViews = collectViews();
         mPager.setColumnsPerPage(columnsPerPage);
-        for (View view : collectViews) {
-            addView(view, view.getLayoutParams());
-        }
+        addViews(collectViews);
     }
 
     /**
@@ -275,9 +320,7 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
             public void run() {
                 List<View> collectViews = collectViews();
                 setPrintSizeSync(size);
-                for (View view : collectViews) {
-                    addView(view, view.getLayoutParams());
-                }
+                addViews(collectViews);
             }
         });
     }
@@ -311,6 +354,35 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
         return mSize;
     }
 
+    PrintScheduler getPrintScheduler() {
+        return mPrintScheduler;
+    }
+
+    /**
+     * Whether the output identified by the given key was last written with
+     * the given page content version, so it is still up to date.
+     *
+     * @param key an identifier for the output, e.g. the file path and print settings
+     * @param version a {@link DocumentPage} content version
+     * @return true if the output is up to date
+     */
+    boolean isPageExported(String key, long version) {
+        Long exported = mExportedVersions.get(key);
+        return exported != null && exported == version;
+    }
+
+    /**
+     * Records that the output identified by the given key was successfully written,
+     * using a page with the given content version. Only the most recently used
+     * outputs are remembered, so this does not grow with targets and settings.
+     *
+     * @param key an identifier for the output, e.g. the file path and print settings
+     * @param version a {@link DocumentPage} content version
+     */
+    void setPageExported(String key, long version) {
+        mExportedVersions.put(key, version);
+    }
+
     DocumentPage getPageAt(int i) {
         return mPager.getPageAt(i);
     }
@@ -386,6 +458,9 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
 
         // After our first layout, set focusability to childs again. See constructor.
         setDescendantFocusability(FOCUS_AFTER_DESCENDANTS);
+
+        // Pages might have moved.
+        updateViewport(getEngine());
     }
 
     private void onFocusChange(final View view) {
@@ -462,6 +537,21 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
         e.moveTo(desiredZoom, panX, panY, true);
     }
 
+    @Override
+    public void onUpdate(ZoomEngine e, Matrix matrix) {
+        super.onUpdate(e, matrix);
+        updateViewport(e);
+    }
+
+    // Passes the visible window, in pager coordinates, to the pager.
+    private void updateViewport(ZoomEngine e) {
+        float zoom = e.getRealZoom();
+        if (zoom <= 0 || getWidth() == 0 || getHeight() == 0) return;
+        float left = -e.getPanX() - mPager.getLeft();
+        float top = -e.getPanY() - mPager.getTop();
+        mPager.setViewport(left, top, left + getWidth() / zoom, top + getHeight() / zoom);
+    }
+
     @Override
     public void onIdle(ZoomEngine e) {
         super.onIdle(e);
@@ -484,6 +574,13 @@ public class DocumentView extends ZoomLayout implements View.OnLayoutChangeListe
         checkOverScrollDirection();
     }
 
+    @Override
+    public void onDocumentReflow(int depth, long nanos) {
+        if (mCallback instanceof DocumentReflowCallback) {
+            ((DocumentReflowCallback) mCallback).onDocumentReflow(depth, nanos);
+        }
+    }
+
     // When pageCount > 1, don't let overScroll in the wrong direction.
     private void checkOverScrollDirection() {
         int pageCount = getPageCount();
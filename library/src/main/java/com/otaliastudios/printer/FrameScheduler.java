@@ -0,0 +1,72 @@
+package com.otaliastudios.printer;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.UiThread;
+import android.view.Choreographer;
+
+/**
+ * Runs a sliced task on the UI thread, cooperating with the frame rendering.
+ * Steps are executed inside {@link Choreographer} frame callbacks until the given
+ * time budget is spent, then we wait for the next frame, so that the UI can keep
+ * drawing while a long task (like recording a big document) is in progress.
+ *
+ * At least one step is executed per frame, so the task always makes progress.
+ * A budget of 0 means that there is no limit: all steps run at once, synchronously.
+ */
+@UiThread
+class FrameScheduler implements Choreographer.FrameCallback {
+
+    private static final String TAG = FrameScheduler.class.getSimpleName();
+    private static final PrinterLogger LOG = PrinterLogger.create(TAG);
+
+    // Half of a 60fps frame.
+    static final long DEFAULT_BUDGET = 8;
+
+    interface Task {
+
+        /**
+         * Executes a single step of this task.
+         *
+         * @return true if there are more steps to run
+         */
+        boolean step();
+    }
+
+    private final long mBudgetNanos;
+    private final Task mTask;
+    private final Runnable mOnDone;
+
+    FrameScheduler(long budgetMillis, @NonNull Task task, @NonNull Runnable onDone) {
+        mBudgetNanos = budgetMillis * 1000000L;
+        mTask = task;
+        mOnDone = onDone;
+    }
+
+    void start() {
+        if (mBudgetNanos <= 0) {
+            //noinspection StatementWithEmptyBody
+            while (mTask.step()) {}
+            mOnDone.run();
+        } else {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long start = System.nanoTime();
+        int steps = 0;
+        boolean more;
+        do {
+            more = mTask.step();
+            steps++;
+        } while (more && System.nanoTime() - start < mBudgetNanos);
+        LOG.v("doFrame:", "executed", steps, "steps in", (System.nanoTime() - start) / 1000000L, "ms.");
+        if (more) {
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            mOnDone.run();
+        }
+    }
+}
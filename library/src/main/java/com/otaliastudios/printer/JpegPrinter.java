@@ -82,9 +82,25 @@ public final class JpegPrinter extends BitmapPrinter {
      * @param printId an (optional) identifier for the process
      * @param directory a directory where the file will be saved
      * @param filename the output base name, with no suffix
+     * @return a handle to the print process
      */
+    @NonNull
     @Override
-    public void print(String printId, @NonNull File directory, @NonNull String filename) {
-        super.print(printId, directory, filename);
+    public PrintJob print(String printId, @NonNull File directory, @NonNull String filename) {
+        return super.print(printId, directory, filename);
+    }
+
+    /**
+     * Prints the current view as JPEG images to streams provided by the given factory,
+     * one stream per page. The factory is passed the page number.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param factory a factory for output streams
+     * @return a handle to the print process
+     */
+    @NonNull
+    @Override
+    public PrintJob print(String printId, @NonNull PrintStreamFactory factory) {
+        return super.print(printId, factory);
     }
 }
@@ -3,18 +3,19 @@ package com.otaliastudios.printer;
 
 import android.content.Context;
 import android.graphics.Canvas;
-import android.graphics.drawable.Drawable;
+import android.graphics.Picture;
 import android.graphics.pdf.PdfDocument;
 import android.os.Handler;
 import android.print.PrintAttributes;
 import android.print.pdf.PrintedPdfDocument;
 import android.support.annotation.NonNull;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * A printer instance that can flawlessly print documents preview from {@link DocumentView}
@@ -31,94 +32,338 @@ public final class PdfPrinter extends Printer {
 
     public static final int PERMISSION_CODE = 283;
     private static final String TAG = PdfPrinter.class.getSimpleName();
+    private static final PrinterLogger LOG = PrinterLogger.create(TAG);
+
+    /**
+     * Constant for {@link #setPrintPagesPerFile(int)} to say that we want
+     * all pages to be written into a single file. This is actually the default.
+     */
+    public static final int PAGES_PER_FILE_ALL = -1;
+
+    /**
+     * Constant for {@link #setPrintFrameBudget(long)} to say that pages should be
+     * recorded all at once, without ever going back to the main loop.
+     */
+    public static final long FRAME_BUDGET_NONE = 0;
+
+    // Number of times we record a file again when the document changes in the meanwhile.
+    private static final int MAX_RECORD_ATTEMPTS = 3;
+
+    // Content version for pages that did not exist when recording.
+    private static final long VERSION_MISSING = -1;
+
+    private int mPagesPerFile = PAGES_PER_FILE_ALL;
+    private long mFrameBudget = FrameScheduler.DEFAULT_BUDGET;
+    private boolean mShareImages = true;
+    private final BitmapCanon.Hashes mImageHashes = new BitmapCanon.Hashes();
 
     public PdfPrinter(@NonNull DocumentView document, @NonNull PrintCallback callback) {
-        super(PERMISSION_CODE, document, callback);
+        super(PERMISSION_CODE, ".pdf", document, callback);
+    }
+
+    /**
+     * Enables the streaming mode, where each PDF file holds at most the given
+     * number of pages. Each file is written and released as soon as its pages are drawn,
+     * before we even start drawing the next, so that memory stays bounded by a single
+     * window of pages no matter how long the document is.
+     *
+     * Files will be named with a count suffix (e.g. file-1.pdf, file-2.pdf), unless the
+     * whole document fits into a single window.
+     * To print all pages into a single file (which is the default), you can pass
+     * {@link #PAGES_PER_FILE_ALL}.
+     *
+     * @param pagesPerFile the max number of pages per file, or {@link #PAGES_PER_FILE_ALL}
+     */
+    public void setPrintPagesPerFile(int pagesPerFile) {
+        if (pagesPerFile <= 0 && pagesPerFile != PAGES_PER_FILE_ALL) {
+            throw new IllegalArgumentException("Pages per file must be > 0.");
+        }
+        mPagesPerFile = pagesPerFile;
+    }
+
+    /**
+     * Sets the time, in milliseconds, that we can spend recording pages in each frame.
+     * Pages are recorded in the UI thread, so for big documents, doing this in a single
+     * pass would freeze the UI. Instead, we record as many pages as the budget allows,
+     * then wait for the next frame. At least one page is recorded per frame.
+     *
+     * Lower values keep the UI smoother, while higher values make the whole print faster.
+     * Defaults to 8 milliseconds, which is half of a 60fps frame. To record all pages at once,
+     * you can pass {@link #FRAME_BUDGET_NONE}.
+     *
+     * Since the document can be edited between frames, we check that recorded pages did not
+     * change before writing each file. If they did, the file is recorded again. The print fails
+     * if the document keeps changing, or if a page of a file that was already written changed.
+     *
+     * @param millis the per-frame budget, or {@link #FRAME_BUDGET_NONE}
+     */
+    public void setPrintFrameBudget(long millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Frame budget must be >= 0.");
+        }
+        mFrameBudget = millis;
+    }
+
+    /**
+     * Controls whether identical images should be written only once into each PDF file.
+     * When enabled (which is the default), bitmaps of {@link android.widget.ImageView}s and
+     * backgrounds are compared across pages, and the ones with the same pixels are embedded once
+     * and shared by all pages. This makes documents with a repeated logo much smaller.
+     *
+     * Only bitmaps with the same size and config are compared. Comparing pixels has a cost
+     * the first time two such bitmaps are seen, and the result is remembered across files
+     * and prints, as long as the bitmaps do not change. You can disable this if you know
+     * that the document has no repeated images.
+     *
+     * @param shareImages whether to share identical images
+     */
+    public void setPrintSharedImages(boolean shareImages) {
+        mShareImages = shareImages;
     }
 
     /**
      * Prints the current view to a PDF file, in the given directory and with the given
      * filename. If the file exists, it will be deleted.
      *
+     * If {@link #setPrintPagesPerFile(int)} was used and the document has more pages than that,
+     * we will print multiple PDFs by adding count suffix to the file (e.g. file-1.pdf, file-2.pdf).
+     * This also means that the callback will be called multiple times.
+     *
      * @param printId an (optional) identifier for the process
      * @param directory a directory where the file will be saved
      * @param filename the output file name
+     * @return a handle to the print process
      */
+    @NonNull
     @Override
-    public void print(final String printId, @NonNull final File directory, @NonNull String filename) {
-        Context context = mDocument.getContext();
-        if (!checkPermission(context, directory)) return;
-        if (!checkPreview(printId, directory, filename)) return;
-        if (!filename.toLowerCase().endsWith(".pdf")) filename += ".pdf";
-        final File file = new File(directory, filename);
-        if (!checkFile(printId, file)) return;
-
-        if (mDocument.getPageCount() == 0) return;
+    public PrintJob print(String printId, @NonNull File directory, @NonNull String filename) {
+        return super.print(printId, directory, filename);
+    }
+
+    /**
+     * Prints the current view as PDF to streams provided by the given factory.
+     * If {@link #setPrintPagesPerFile(int)} was used and the document has more pages than that,
+     * the factory will be asked for one stream per file.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param factory a factory for output streams
+     * @return a handle to the print process
+     */
+    @NonNull
+    @Override
+    public PrintJob print(String printId, @NonNull PrintStreamFactory factory) {
+        return super.print(printId, factory);
+    }
+
+    @Override
+    void print(@NonNull PrintJob job, @NonNull PrintTarget target) {
+        if (!checkPreview(job, target)) return;
+        int[] pages = getPrintPages();
+        if (pages.length == 0) {
+            job.finish();
+            return;
+        }
+        int count = pages.length;
+        job.setPageCount(count);
         DocumentPage firstPage = mDocument.getPageAt(0);
         PrintSize size = mDocument.getPrintSize();
+        int window = mPagesPerFile == PAGES_PER_FILE_ALL ? count : Math.min(mPagesPerFile, count);
 
-        // Create doc
+        // Create doc attributes, shared by all files.
         PrintAttributes attrs = new PrintAttributes.Builder()
                 .setColorMode(PrintAttributes.COLOR_MODE_COLOR)
                 .setMediaSize(size.toMediaSize(firstPage))
                 .setMinMargins(PrintAttributes.Margins.NO_MARGINS)
                 .build();
-        final PrintedPdfDocument doc = new PrintedPdfDocument(context, attrs);
-
-        // Print page
-        // Page canvas is passed in PostScript points. In order not to break View drawing,
-        // we must scale that up back to pixels.
-        dispatchOnPrePrint(mDocument);
-        for (int i = 0; i < mDocument.getPageCount(); i++) {
-            PdfDocument.Page page = doc.startPage(i);
-            Canvas canvas = page.getCanvas();
-            float pixelsToPoints = PrintSize.PIXELS_TO_INCHES(context) * PrintSize.INCHES_TO_POINTS;
-            canvas.scale(pixelsToPoints, pixelsToPoints, 0, 0);
-
-            DocumentPage view = mDocument.getPageAt(i);
-            Drawable background = null;
-            if (!mPrintBackground) {
-                background = view.getBackground();
-                view.setBackground(null);
+
+        new Session(job, target, attrs, pages, window).printFile(0);
+    }
+
+    /**
+     * Holds the state of a single print process. Files are printed one after the other:
+     * pages are recorded on the UI thread, then the document is written and closed in the
+     * executor. Only when it is closed, we move on to the next file.
+     */
+    private class Session {
+
+        private final PrintJob mJob;
+        private final PrintTarget mTarget;
+        private final PrintAttributes mAttrs;
+        private final int[] mPages;
+        private final int mWindow;
+        private final Handler mUi = new Handler();
+        private final Executor mWorker = getExecutor();
+        private final PrintStats mStats;
+        private final long[] mVersions;
+
+        private Session(PrintJob job, PrintTarget target, PrintAttributes attrs, int[] pages, int window) {
+            mJob = job;
+            mTarget = target;
+            mAttrs = attrs;
+            mPages = pages;
+            mWindow = window;
+            mStats = new PrintStats(pages);
+            mVersions = new long[pages.length];
+        }
+
+        private void printFile(final int fileIndex) {
+            int count = mPages.length;
+            int files = (int) Math.ceil((float) count / mWindow);
+            if (fileIndex >= files || mJob.isCancelled()) {
+                LOG.i("print:", "done.");
+                if (!mJob.isCancelled()) dispatchOnPrintStats(mJob, mStats);
+                mJob.finish();
+                return;
             }
-            view.draw(canvas);
-            if (!mPrintBackground) {
-                view.setBackground(background);
+
+            String suffix = files == 1 ? mFormat : "-" + (fileIndex + 1) + mFormat;
+            final File file = mTarget.getFile(suffix);
+            long start = System.nanoTime();
+            if (file != null && !checkFile(mJob.getId(), file)) {
+                mJob.finish();
+                return; // Error!
             }
-            doc.finishPage(page);
+            mStats.addTime(-1, PrintStats.PHASE_FILE, start);
+
+            int first = fileIndex * mWindow;
+            int last = Math.min(first + mWindow, count);
+            recordFile(fileIndex, file, first, last, 1);
         }
-        dispatchOnPostPrint(mDocument);
-
-        // I am not sure if the above would work with any view. Some views might be checking for
-        // canvas.getWidth() or canvas.tryGetHeight(), which now are not consistent. If errors show up,
-        // we might have to draw on a separate canvas and then scale the bitmap.
-        // This has other drawbacks: the original pdf canvas, for example, takes text as text and
-        // makes it selectable in the final PDF.
-
-        // Print in a separate thread.
-        // Since we're API 19 we can use try with resources.
-        final Handler ui = new Handler();
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try (OutputStream stream = new BufferedOutputStream(new FileOutputStream(file))) {
-                    doc.writeTo(stream);
-                    ui.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mCallback.onPrint(printId, file);
-                        }
-                    });
 
-                } catch (final IOException e) {
-                    ui.post(new Runnable() {
+        // Record pages on the UI thread, a few per frame. This is cheap compared to drawing
+        // into the PDF canvas, which happens in the worker.
+        private void recordFile(final int fileIndex, final File file,
+                                final int first, final int last, final int attempt) {
+            final List<Picture> pictures = new ArrayList<>(last - first);
+            final BitmapCanon canon = mShareImages ? new BitmapCanon(mDocument.getResources(), mImageHashes) : null;
+            new FrameScheduler(mFrameBudget, new FrameScheduler.Task() {
+                private int mNext = first;
+
+                @Override
+                public boolean step() {
+                    if (mJob.isCancelled()) return false;
+                    // Pages might be removed between frames. Missing pages are left out.
+                    int index = mNext++;
+                    int page = mPages[index];
+                    if (page < mDocument.getPageCount()) {
+                        DocumentPage view = mDocument.getPageAt(page);
+                        pictures.add(recordPage(view, mStats, index, canon));
+                        // Read after recording, in the same step, so nothing can change in between.
+                        mVersions[index] = view.getContentVersion();
+                    } else {
+                        mVersions[index] = VERSION_MISSING;
+                        pictures.add(null);
+                    }
+                    mJob.onPagesRendered(1);
+                    dispatchOnPrintProgress(mJob);
+                    return mNext < last;
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    if (mJob.isCancelled()) {
+                        mJob.onFileClosed(file, false);
+                        mJob.finish();
+                        return;
+                    }
+                    int changed = findChangedPage(last);
+                    if (changed < 0) {
+                        writeFile(fileIndex, first, file, pictures);
+                    } else if (changed >= first && attempt < MAX_RECORD_ATTEMPTS) {
+                        LOG.w("print:", "page", mPages[changed], "changed while recording. Attempt:", attempt);
+                        mJob.onPagesRendered(-pictures.size());
+                        recordFile(fileIndex, file, first, last, attempt + 1);
+                    } else {
+                        LOG.e("print:", "page", mPages[changed], "changed while printing. Giving up.");
+                        mJob.onFileClosed(file, false);
+                        mCallback.onPrintFailed(mJob.getId(),
+                                new IllegalStateException("The document changed while printing."));
+                        mJob.finish();
+                    }
+                }
+            }).start();
+        }
+
+        // Returns the first page, before the given index, that changed since it was recorded,
+        // or -1 if the recorded pages are still a consistent snapshot of the document.
+        private int findChangedPage(int last) {
+            int count = mDocument.getPageCount();
+            for (int i = 0; i < last; i++) {
+                int page = mPages[i];
+                long version = page < count ? mDocument.getPageAt(page).getContentVersion() : VERSION_MISSING;
+                if (version != mVersions[i]) return i;
+            }
+            return -1;
+        }
+
+        // Writes and closes the document in the executor, then goes on with the next file.
+        private void writeFile(final int fileIndex, final int first,
+                               final File file, final List<Picture> pictures) {
+            final Context context = mDocument.getContext();
+
+            // Views record into a canvas that has their own size in pixels. Playing the pictures back
+            // on the pdf canvas keeps text as text, so it is still selectable in the final PDF.
+
+            // Since we're API 19 we can use try with resources.
+            final float pixelsToPoints = PrintSize.PIXELS_TO_INCHES(context) * PrintSize.INCHES_TO_POINTS;
+            mWorker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // Print pages
+                    // Page canvas is passed in PostScript points. In order not to break View drawing,
+                    // we must scale that up back to pixels.
+                    final PrintedPdfDocument doc = new PrintedPdfDocument(context, mAttrs);
+                    int written = 0;
+                    for (int i = 0; i < pictures.size(); i++) {
+                        Picture picture = pictures.get(i);
+                        if (picture == null) continue;
+                        long start = System.nanoTime();
+                        PdfDocument.Page page = doc.startPage(written++);
+                        Canvas canvas = page.getCanvas();
+                        canvas.scale(pixelsToPoints, pixelsToPoints, 0, 0);
+                        picture.draw(canvas);
+                        doc.finishPage(page);
+                        mStats.addTime(first + i, PrintStats.PHASE_DRAW, start);
+                    }
+                    pictures.clear();
+
+                    long start = System.nanoTime();
+                    try (OutputStream stream = mJob.wrap(mTarget.open(mJob.getId(), fileIndex, file))) {
+                        mStats.addTime(-1, PrintStats.PHASE_FILE, start);
+                        start = System.nanoTime();
+                        doc.writeTo(stream);
+                        mStats.addTime(-1, PrintStats.PHASE_ENCODE, start);
+                    } catch (final IOException e) {
+                        LOG.e("print:", "got error on file:", fileIndex, "error:", e);
+                        doc.close();
+                        mJob.onFileClosed(file, false);
+                        mUi.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!mJob.isCancelled()) {
+                                    mCallback.onPrintFailed(mJob.getId(), mTarget.error(fileIndex, file, e));
+                                }
+                                mJob.finish();
+                            }
+                        });
+                        return;
+                    }
+
+                    doc.close(); // Release pages before going on.
+                    mJob.onFileClosed(file, true);
+                    mJob.onPagesEncoded(written);
+                    mUi.post(new Runnable() {
                         @Override
                         public void run() {
-                            mCallback.onPrintFailed(printId, new RuntimeException("Invalid file: " + file, e));
+                            if (!mJob.isCancelled()) {
+                                mCallback.onPrint(mJob.getId(), file);
+                                dispatchOnPrintProgress(mJob);
+                            }
+                            printFile(fileIndex + 1);
                         }
                     });
                 }
-            }
-        }, TAG + "Worker").start();
+            });
+        }
     }
 }
@@ -0,0 +1,123 @@
+package com.otaliastudios.printer;
+
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A streaming PNG encoder. Unlike {@link Bitmap#compress(Bitmap.CompressFormat, int, OutputStream)},
+ * this accepts the image in horizontal bands, top to bottom, so that the full image
+ * never needs to be in memory.
+ *
+ * Output is 8-bit RGBA, with the Sub filter on every row.
+ */
+class PngEncoder implements BandEncoder {
+
+    private static final byte[] SIGNATURE = new byte[]{ (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final DataOutputStream mStream;
+    private final int mWidth;
+    private final int mHeight;
+    private final Deflater mDeflater;
+    private final DeflaterOutputStream mData;
+    private final int[] mPixels;
+    private final byte[] mRow;
+    private int mRows = 0;
+
+    PngEncoder(OutputStream stream, int width, int height) throws IOException {
+        mStream = new DataOutputStream(stream);
+        mWidth = width;
+        mHeight = height;
+        mPixels = new int[width];
+        mRow = new byte[1 + width * BYTES_PER_PIXEL];
+        mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        mData = new DeflaterOutputStream(new ChunkOutputStream(), mDeflater, CHUNK_SIZE);
+
+        mStream.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(8); // Bit depth
+        data.writeByte(6); // Color type: RGBA
+        data.writeByte(0); // Compression: deflate
+        data.writeByte(0); // Filter method: adaptive
+        data.writeByte(0); // Interlace: none
+        writeChunk("IHDR", header.toByteArray(), header.size());
+    }
+
+    @Override
+    public void encode(Bitmap band, int rows) throws IOException {
+        if (mRows + rows > mHeight) {
+            throw new IllegalStateException("Got more rows than the image height.");
+        }
+        for (int y = 0; y < rows; y++) {
+            // getPixels returns non-premultiplied colors.
+            band.getPixels(mPixels, 0, mWidth, 0, y, mWidth, 1);
+            mRow[0] = 1; // Sub filter
+            int previous = 0;
+            for (int x = 0, i = 1; x < mWidth; x++, i += BYTES_PER_PIXEL) {
+                int color = mPixels[x];
+                mRow[i] = (byte) ((color >> 16) - (previous >> 16));
+                mRow[i + 1] = (byte) ((color >> 8) - (previous >> 8));
+                mRow[i + 2] = (byte) (color - previous);
+                mRow[i + 3] = (byte) ((color >>> 24) - (previous >>> 24));
+                previous = color;
+            }
+            mData.write(mRow);
+        }
+        mRows += rows;
+    }
+
+    @Override
+    public void finish() throws IOException {
+        if (mRows != mHeight) {
+            throw new IllegalStateException("Got " + mRows + " rows, expected " + mHeight);
+        }
+        mData.finish();
+        mDeflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        mStream.flush();
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        mStream.writeInt(length);
+        mStream.write(typeBytes);
+        mStream.write(data, 0, length);
+        mStream.writeInt((int) crc.getValue());
+    }
+
+    // Collects deflated data and writes it as IDAT chunks.
+    private class ChunkOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{ (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return;
+            if (off == 0) {
+                writeChunk("IDAT", b, len);
+            } else {
+                byte[] copy = new byte[len];
+                System.arraycopy(b, off, copy, 0, len);
+                writeChunk("IDAT", copy, len);
+            }
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.graphics.Bitmap;
 import android.support.annotation.NonNull;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * A printer instance that can flawlessly print documents preview from {@link DocumentView}
@@ -57,6 +59,32 @@ public final class PngPrinter extends BitmapPrinter {
         super.setPrintScale(scale);
     }
 
+    /**
+     * Enables tiled rendering. Pages taller than the given height (in output pixels) are drawn
+     * in horizontal bands, using a single band bitmap, and each band is streamed into the
+     * PNG encoder before the next one is drawn. This way, peak memory depends on the band size
+     * rather than the page size, which makes it possible to print huge pages like
+     * {@link PrintSize#ISO_A0} at full scale.
+     *
+     * Each band replays the whole recorded page, so this is slower than the default.
+     * Pass 0 to disable, which is the default.
+     *
+     * @param bandHeight the band height in pixels, or 0
+     */
+    public void setPrintBandHeight(int bandHeight) {
+        setBandHeight(bandHeight);
+    }
+
+    @Override
+    boolean supportsBands() {
+        return true;
+    }
+
+    @Override
+    BandEncoder createBandEncoder(OutputStream stream, int width, int height) throws IOException {
+        return new PngEncoder(stream, width, height);
+    }
+
     /**
      * Prints the current view to a PNG file, in the given directory and with the given
      * base name. If the document has multiple pages, we will print multiple PNGs by adding
@@ -68,9 +96,25 @@ public final class PngPrinter extends BitmapPrinter {
      * @param printId an (optional) identifier for the process
      * @param directory a directory where the file will be saved
      * @param filename the output base name
+     * @return a handle to the print process
+     */
+    @NonNull
+    @Override
+    public PrintJob print(String printId, @NonNull File directory, @NonNull String filename) {
+        return super.print(printId, directory, filename);
+    }
+
+    /**
+     * Prints the current view as PNG images to streams provided by the given factory,
+     * one stream per page. The factory is passed the page number.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param factory a factory for output streams
+     * @return a handle to the print process
      */
+    @NonNull
     @Override
-    public void print(String printId, @NonNull File directory, @NonNull String filename) {
-        super.print(printId, directory, filename);
+    public PrintJob print(String printId, @NonNull PrintStreamFactory factory) {
+        return super.print(printId, factory);
     }
 }
@@ -1,5 +1,6 @@
 package com.otaliastudios.printer;
 
+import android.support.annotation.Nullable;
 import android.support.annotation.UiThread;
 
 import java.io.File;
@@ -13,12 +14,13 @@ public interface PrintCallback {
     /**
      * Notifies that the hierarchy was correctly written to the given file.
      * This might be called multiple times (one per page) depending on the printer.
+     * If the printer was writing to a {@link PrintStreamFactory}, the file is null.
      *
      * @param id an identifier of the print process
-     * @param file a file containing the printed hierarchy
+     * @param file a file containing the printed hierarchy, or null
      */
     @UiThread
-    void onPrint(String id, File file);
+    void onPrint(String id, @Nullable File file);
 
     /**
      * Notifies that the printing execution was blocked due to some error,
@@ -0,0 +1,189 @@
+package com.otaliastudios.printer;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A handle to a print process, returned by the {@link Printer} print methods.
+ * It can be used to cancel the process, or to query its progress.
+ *
+ * If the callback passed to the printer is a {@link PrintProgressCallback},
+ * it will also be notified each time a page is rendered or encoded.
+ */
+public final class PrintJob {
+
+    private final String mId;
+    private volatile boolean mCancelled;
+    private volatile boolean mDone;
+    private Runnable mOnDone;
+    private volatile int mPageCount;
+    private final AtomicInteger mPagesRendered = new AtomicInteger(0);
+    private final AtomicInteger mPagesEncoded = new AtomicInteger(0);
+    private final AtomicLong mBytesWritten = new AtomicLong(0);
+
+    PrintJob(String id) {
+        mId = id;
+    }
+
+    /**
+     * Returns the identifier that was passed to the printer.
+     *
+     * @return the print id
+     */
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * Cancels this process. Rendering stops at the next page, encoding stops as soon as
+     * the encoder writes again, and files that were not completely written are deleted.
+     * After this call, the {@link PrintCallback} will not be notified anymore.
+     *
+     * Files that were already passed to {@link PrintCallback#onPrint(String, File)} are kept.
+     * This can be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Whether {@link #cancel()} was called.
+     *
+     * @return true if cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Whether this process has ended, because all outputs were written,
+     * because of an error, or because it was cancelled.
+     *
+     * @return true if done
+     */
+    public boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Returns the number of pages that this process is going to print,
+     * or 0 if it has not started yet.
+     *
+     * @return the page count
+     */
+    public int getPageCount() {
+        return mPageCount;
+    }
+
+    /**
+     * Returns the number of pages that were drawn so far.
+     *
+     * @return rendered pages
+     */
+    public int getPagesRendered() {
+        return mPagesRendered.get();
+    }
+
+    /**
+     * Returns the number of pages that were encoded and written so far.
+     *
+     * @return encoded pages
+     */
+    public int getPagesEncoded() {
+        return mPagesEncoded.get();
+    }
+
+    /**
+     * Returns the number of bytes written so far, across all outputs.
+     *
+     * @return written bytes
+     */
+    public long getBytesWritten() {
+        return mBytesWritten.get();
+    }
+
+    // Called in the UI thread when the job ends.
+    void setOnDone(@Nullable Runnable onDone) {
+        mOnDone = onDone;
+    }
+
+    // Must be called in the UI thread.
+    void finish() {
+        if (mDone) return;
+        mDone = true;
+        if (mOnDone != null) mOnDone.run();
+    }
+
+    void setPageCount(int pageCount) {
+        mPageCount = pageCount;
+    }
+
+    void onPagesRendered(int pages) {
+        mPagesRendered.addAndGet(pages);
+    }
+
+    void onPagesEncoded(int pages) {
+        mPagesEncoded.addAndGet(pages);
+    }
+
+    /**
+     * Called when an output file was closed. If it was not completely written,
+     * for example because the job was cancelled, it is deleted.
+     *
+     * @param file the file, or null for stream targets
+     * @param complete whether the file was written successfully
+     */
+    void onFileClosed(@Nullable File file, boolean complete) {
+        if (file == null) return;
+        if (!complete) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    /**
+     * Wraps an output stream so that it counts written bytes, and throws
+     * as soon as the job is cancelled. This way even long encodings stop quickly.
+     *
+     * @param stream the output stream
+     * @return a wrapped stream
+     */
+    OutputStream wrap(@NonNull OutputStream stream) {
+        return new FilterOutputStream(stream) {
+
+            @Override
+            public void write(int b) throws IOException {
+                checkCancelled();
+                out.write(b);
+                mBytesWritten.incrementAndGet();
+            }
+
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                checkCancelled();
+                out.write(b, off, len);
+                mBytesWritten.addAndGet(len);
+            }
+        };
+    }
+
+    private void checkCancelled() throws IOException {
+        if (mCancelled) throw new IOException("Print job " + mId + " was cancelled.");
+    }
+
+    @Override
+    public String toString() {
+        return "{PrintJob: id=" + mId +
+                ", cancelled=" + mCancelled +
+                ", pages=" + mPagesEncoded.get() + "/" + mPageCount +
+                ", bytes=" + mBytesWritten.get() + "}";
+    }
+}
@@ -0,0 +1,23 @@
+package com.otaliastudios.printer;
+
+import android.support.annotation.UiThread;
+
+/**
+ * A {@link PrintCallback} that also wants to be notified about the progress
+ * of the print process. If the callback passed to a {@link Printer} implements
+ * this interface, {@link #onPrintProgress(String, PrintJob)} will be called.
+ * They are executed in the UI thread.
+ */
+public interface PrintProgressCallback extends PrintCallback {
+
+    /**
+     * Notifies that some progress was made, that is, a page was rendered
+     * or some pages were encoded. The current state can be read from the job,
+     * which can also be cancelled.
+     *
+     * @param id an identifier of the print process
+     * @param job the print job
+     */
+    @UiThread
+    void onPrintProgress(String id, PrintJob job);
+}
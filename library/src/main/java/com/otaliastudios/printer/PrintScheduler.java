@@ -0,0 +1,72 @@
+package com.otaliastudios.printer;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.UiThread;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Serializes print jobs of a single {@link DocumentView}, so that only one runs at a time.
+ * When a job is queued, older queued jobs from the same kind of printer that would
+ * write the same files are cancelled, so that only the latest one runs.
+ *
+ * This is only accessed in the UI thread.
+ */
+@UiThread
+class PrintScheduler {
+
+    private static final String TAG = PrintScheduler.class.getSimpleName();
+    private static final PrinterLogger LOG = PrinterLogger.create(TAG);
+
+    private static class Entry {
+        private final Printer mPrinter;
+        private final PrintJob mJob;
+        private final PrintTarget mTarget;
+
+        private Entry(Printer printer, PrintJob job, PrintTarget target) {
+            mPrinter = printer;
+            mJob = job;
+            mTarget = target;
+        }
+    }
+
+    private final LinkedList<Entry> mQueue = new LinkedList<>();
+    private Entry mCurrent;
+
+    void enqueue(@NonNull Printer printer, @NonNull PrintJob job, @NonNull PrintTarget target) {
+        Iterator<Entry> iterator = mQueue.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (entry.mPrinter.getClass() == printer.getClass() && entry.mTarget.hasSameOutput(target)) {
+                LOG.i("enqueue:", "coalescing job", entry.mJob.getId(), "into", job.getId());
+                iterator.remove();
+                entry.mJob.cancel();
+                entry.mJob.finish();
+            }
+        }
+        mQueue.addLast(new Entry(printer, job, target));
+        runNext();
+    }
+
+    private void runNext() {
+        while (mCurrent == null && !mQueue.isEmpty()) {
+            Entry entry = mQueue.removeFirst();
+            if (entry.mJob.isCancelled()) {
+                entry.mJob.finish();
+                continue;
+            }
+            mCurrent = entry;
+            entry.mJob.setOnDone(new Runnable() {
+                @Override
+                public void run() {
+                    mCurrent = null;
+                    runNext();
+                }
+            });
+            LOG.i("runNext:", "starting job", entry.mJob.getId());
+            entry.mPrinter.print(entry.mJob, entry.mTarget);
+        }
+    }
+}
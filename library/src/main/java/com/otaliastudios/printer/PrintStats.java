@@ -0,0 +1,251 @@
+package com.otaliastudios.printer;
+
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics about a single print process, passed to
+ * {@link PrintStatsCallback#onPrintStats(String, PrintStats)}.
+ *
+ * Besides counters, this holds the time spent in each phase of the process,
+ * both in total and for each page. Phases are identified by the PHASE constants.
+ * Times are in nanoseconds and are summed across threads, so, since encoding
+ * happens in parallel, their sum can be greater than {@link #getTotalNanos()}.
+ */
+public final class PrintStats {
+
+    /**
+     * Creating, opening and closing output files or streams.
+     */
+    public static final int PHASE_FILE = 0;
+
+    /**
+     * Notifying {@link Printable} views that a page is going to be printed, and that it was.
+     */
+    public static final int PHASE_PRE_PRINT = 1;
+
+    /**
+     * Recording the page views, on the UI thread.
+     */
+    public static final int PHASE_RECORD = 2;
+
+    /**
+     * Drawing the recorded page into the output canvas, that is, a bitmap or a PDF page.
+     */
+    public static final int PHASE_DRAW = 3;
+
+    /**
+     * Compressing and writing the output. For PDF files, this is not related to a single page.
+     */
+    public static final int PHASE_ENCODE = 4;
+
+    /**
+     * The number of phases. Phase constants go from 0 to this value, excluded.
+     */
+    public static final int PHASE_COUNT = 5;
+
+    private static final String[] PHASE_NAMES = new String[]{ "file", "prePrint", "record", "draw", "encode" };
+
+    int mBitmapPoolHits;
+    int mBitmapPoolMisses;
+    long mBitmapBytesAllocated;
+    int mPicturesRecorded;
+    int mPagesSkipped;
+    int mCacheHits;
+    int mCacheMisses;
+    int mImagesShared;
+    long mBytesWritten;
+    long mTotalNanos;
+
+    private final long mStartNanos = System.nanoTime();
+    private final int[] mPages;
+    private final long[] mPhaseNanos = new long[PHASE_COUNT];
+    private final long[][] mPageNanos;
+
+    PrintStats(int[] pages) {
+        mPages = pages;
+        mPageNanos = new long[pages.length][PHASE_COUNT];
+    }
+
+    // Can be called from any thread. Pass -1 as index if not related to a single page.
+    synchronized void addTime(int index, int phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        mPhaseNanos[phase] += nanos;
+        if (index >= 0) mPageNanos[index][phase] += nanos;
+    }
+
+    // Called in the UI thread when the process ends.
+    void end(PrintJob job) {
+        mTotalNanos = System.nanoTime() - mStartNanos;
+        mBytesWritten = job.getBytesWritten();
+    }
+
+    /**
+     * Returns a short name for the given phase, like "record" for {@link #PHASE_RECORD}.
+     *
+     * @param phase one of the PHASE constants
+     * @return the phase name
+     */
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    /**
+     * Returns the number of pages that could reuse a bitmap
+     * from the printer pool, instead of allocating a new one.
+     *
+     * @return pool hits
+     */
+    public int getBitmapPoolHits() {
+        return mBitmapPoolHits;
+    }
+
+    /**
+     * Returns the number of pages that had to allocate
+     * a new bitmap, because none was available in the printer pool.
+     *
+     * @return pool misses
+     */
+    public int getBitmapPoolMisses() {
+        return mBitmapPoolMisses;
+    }
+
+    /**
+     * Returns the number of bytes of the bitmaps that were allocated
+     * by this process, because none was available in the pool.
+     *
+     * @return allocated bitmap bytes
+     */
+    public long getBitmapBytesAllocated() {
+        return mBitmapBytesAllocated;
+    }
+
+    /**
+     * Returns the number of pages that were recorded on the UI thread.
+     * Each recording allocates a display list.
+     *
+     * @return recorded pages
+     */
+    public int getPicturesRecorded() {
+        return mPicturesRecorded;
+    }
+
+    /**
+     * Returns the number of pages that were not printed again, because
+     * incremental printing was enabled and their output file was up to date.
+     *
+     * @return skipped pages
+     */
+    public int getPagesSkipped() {
+        return mPagesSkipped;
+    }
+
+    /**
+     * Returns the number of pages whose encoded bytes were found in the
+     * printer cache, so they were not compressed again.
+     *
+     * @return cache hits
+     */
+    public int getCacheHits() {
+        return mCacheHits;
+    }
+
+    /**
+     * Returns the number of pages that were not found in the printer cache,
+     * so they were compressed and added to it.
+     *
+     * @return cache misses
+     */
+    public int getCacheMisses() {
+        return mCacheMisses;
+    }
+
+    /**
+     * Returns the number of images that were drawn on a PDF page, but not embedded
+     * again, because an identical image was already written into the same file.
+     *
+     * @return shared images
+     */
+    public int getImagesShared() {
+        return mImagesShared;
+    }
+
+    /**
+     * Returns the number of bytes written across all outputs.
+     *
+     * @return written bytes
+     */
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    /**
+     * Returns the wall time of the whole process, in nanoseconds.
+     *
+     * @return total time
+     */
+    public long getTotalNanos() {
+        return mTotalNanos;
+    }
+
+    /**
+     * Returns the number of pages in this process.
+     *
+     * @return page count
+     */
+    public int getPageCount() {
+        return mPages.length;
+    }
+
+    /**
+     * Returns the document page number for the given page index.
+     *
+     * @param index a page index, less than {@link #getPageCount()}
+     * @return the page number
+     */
+    public int getPageNumber(int index) {
+        return mPages[index];
+    }
+
+    /**
+     * Returns the time spent in the given phase, summed across all pages and threads,
+     * in nanoseconds.
+     *
+     * @param phase one of the PHASE constants
+     * @return the phase time
+     */
+    public synchronized long getPhaseNanos(int phase) {
+        return mPhaseNanos[phase];
+    }
+
+    /**
+     * Returns the time spent in the given phase for the given page, in nanoseconds.
+     *
+     * @param index a page index, less than {@link #getPageCount()}
+     * @param phase one of the PHASE constants
+     * @return the phase time
+     */
+    public synchronized long getPageNanos(int index, int phase) {
+        return mPageNanos[index][phase];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder phases = new StringBuilder();
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            phases.append(", ").append(PHASE_NAMES[i]).append("Ms=")
+                    .append(TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(i)));
+        }
+        return "{PrintStats: totalMs=" + TimeUnit.NANOSECONDS.toMillis(mTotalNanos) +
+                phases +
+                ", bytesWritten=" + mBytesWritten +
+                ", picturesRecorded=" + mPicturesRecorded +
+                ", bitmapPoolHits=" + mBitmapPoolHits +
+                ", bitmapPoolMisses=" + mBitmapPoolMisses +
+                ", bitmapBytesAllocated=" + mBitmapBytesAllocated +
+                ", pagesSkipped=" + mPagesSkipped +
+                ", cacheHits=" + mCacheHits +
+                ", cacheMisses=" + mCacheMisses +
+                ", imagesShared=" + mImagesShared + "}";
+    }
+}
@@ -0,0 +1,23 @@
+package com.otaliastudios.printer;
+
+import android.support.annotation.UiThread;
+
+/**
+ * A {@link PrintCallback} that also wants to receive statistics about
+ * the print process. If the callback passed to a {@link Printer} implements
+ * this interface, {@link #onPrintStats(String, PrintStats)} will be called.
+ * They are executed in the UI thread.
+ */
+public interface PrintStatsCallback extends PrintCallback {
+
+    /**
+     * Notifies that the print process has ended, and passes
+     * statistics about it. This is called once per process, after
+     * all files were written or failed.
+     *
+     * @param id an identifier of the print process
+     * @param stats statistics about the process
+     */
+    @UiThread
+    void onPrintStats(String id, PrintStats stats);
+}
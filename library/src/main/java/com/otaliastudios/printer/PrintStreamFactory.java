@@ -0,0 +1,34 @@
+package com.otaliastudios.printer;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Provides output streams to a {@link Printer}, so that printed files can be written
+ * anywhere (e.g. a socket, a {@link android.os.ParcelFileDescriptor} pipe or memory)
+ * instead of a file on disk. Pass this to {@link Printer#print(String, PrintStreamFactory)}.
+ *
+ * To write to a {@link java.nio.channels.WritableByteChannel}, you can return
+ * {@link java.nio.channels.Channels#newOutputStream(java.nio.channels.WritableByteChannel)}.
+ */
+public interface PrintStreamFactory {
+
+    /**
+     * Opens the stream for the given output. This is called once per output file that the
+     * printer would write: once per page for image printers, once per file for
+     * {@link PdfPrinter}. The stream will be closed by the printer when done.
+     *
+     * This might be called in a background thread.
+     *
+     * @param id an identifier of the print process
+     * @param index the page number for image printers, the file number for PDF printers
+     * @return a stream to write to
+     * @throws IOException if the stream can not be opened
+     */
+    @WorkerThread
+    @NonNull
+    OutputStream openStream(String id, int index) throws IOException;
+}
@@ -0,0 +1,84 @@
+package com.otaliastudios.printer;
+
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Where a print process writes its output: either files in a directory,
+ * or streams coming from a {@link PrintStreamFactory}.
+ */
+class PrintTarget {
+
+    private final File mDirectory;
+    private final String mFilename;
+    private final PrintStreamFactory mFactory;
+
+    private PrintTarget(File directory, String filename, PrintStreamFactory factory) {
+        mDirectory = directory;
+        mFilename = filename;
+        mFactory = factory;
+    }
+
+    static PrintTarget file(@NonNull File directory, @NonNull String filename) {
+        return new PrintTarget(directory, filename, null);
+    }
+
+    static PrintTarget stream(@NonNull PrintStreamFactory factory) {
+        return new PrintTarget(null, null, factory);
+    }
+
+    /**
+     * Returns the file for the given suffix, or null if we are not writing to files.
+     *
+     * @param suffix the file suffix, including the extension
+     * @return the output file, or null
+     */
+    @Nullable
+    File getFile(String suffix) {
+        if (mFactory != null) return null;
+        return new File(mDirectory, mFilename + suffix);
+    }
+
+    /**
+     * Opens a buffered stream for the given output.
+     *
+     * @param id the print id
+     * @param index the output index
+     * @param file the file returned by {@link #getFile(String)}
+     * @return a stream
+     * @throws IOException if opening fails
+     */
+    OutputStream open(String id, int index, @Nullable File file) throws IOException {
+        if (mFactory != null) {
+            return new BufferedOutputStream(mFactory.openStream(id, index));
+        }
+        return new BufferedOutputStream(new FileOutputStream(file));
+    }
+
+    /**
+     * Whether this target and the other one are going to write the same files.
+     * Stream targets are never considered equal.
+     *
+     * @param other another target
+     * @return true if outputs are the same
+     */
+    boolean hasSameOutput(@NonNull PrintTarget other) {
+        return mFactory == null && other.mFactory == null
+                && mDirectory.equals(other.mDirectory)
+                && mFilename.equals(other.mFilename);
+    }
+
+    RuntimeException error(int index, @Nullable File file, IOException cause) {
+        if (file != null) {
+            return new RuntimeException("Invalid file: " + file, cause);
+        }
+        return new RuntimeException("Could not write output: " + index, cause);
+    }
+}
@@ -6,10 +6,14 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.pm.PackageManager;
+import android.graphics.Picture;
+import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.os.Environment;
+import android.print.PageRange;
 import android.support.annotation.CallSuper;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -19,6 +23,12 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A general interface for engines that can print view hierarchies to some sort or file or folder.
@@ -29,13 +39,26 @@ import java.nio.file.Paths;
  */
 public abstract class Printer {
 
+    /**
+     * Constant for {@link #setPrintPages(int...)} to say that we want to print
+     * all pages. This is actually the default.
+     */
+    public static final int PRINT_ALL = -1;
+
     protected DocumentView mDocument;
     protected PrintCallback mCallback;
     protected boolean mPrintBackground = true;
     private int mPermissionCode;
+    final String mFormat;
+    Executor mExecutor;
+    private PageRange[] mPrintRanges;
+
+    private static Executor sDefaultExecutor;
 
-    Printer(int permissionCode, @NonNull DocumentView document, @NonNull PrintCallback callback) {
+    Printer(int permissionCode, @NonNull String format,
+            @NonNull DocumentView document, @NonNull PrintCallback callback) {
         mPermissionCode = permissionCode;
+        mFormat = format.toLowerCase();
         mDocument = document;
         mCallback = callback;
     }
@@ -44,16 +67,132 @@ public abstract class Printer {
         mPrintBackground = printPageBackground;
     }
 
-    boolean checkPreview(final String id, final File directory, final String name) {
-        if (!mDocument.isAttachedToWindow()) {
-            mCallback.onPrintFailed(id, new IllegalStateException("Preview not added to window."));
+    /**
+     * Sets the numbers of the pages which should be printed, starting from 0.
+     * To print all pages (which is the default), you can pass {@link #PRINT_ALL}
+     * as the only parameter.
+     *
+     * @param pageNumbers any number of pages to be printed
+     */
+    public void setPrintPages(int... pageNumbers) {
+        if (pageNumbers.length == 1 && pageNumbers[0] == PRINT_ALL) {
+            mPrintRanges = null;
+        } else {
+            PageRange[] ranges = new PageRange[pageNumbers.length];
+            for (int i = 0; i < pageNumbers.length; i++) {
+                ranges[i] = new PageRange(pageNumbers[i], pageNumbers[i]);
+            }
+            mPrintRanges = ranges;
+        }
+    }
+
+    /**
+     * Sets the ranges of pages which should be printed. Ranges are inclusive, start from 0,
+     * and are printed in the given order. Pages past the end of the document are ignored,
+     * so {@code new PageRange(10, Integer.MAX_VALUE)} prints everything from the eleventh page on.
+     * To print all pages (which is the default), you can pass {@link PageRange#ALL_PAGES}
+     * as the only parameter.
+     *
+     * @param ranges any number of page ranges to be printed
+     */
+    public void setPrintPageRanges(@NonNull PageRange... ranges) {
+        if (ranges.length == 1 && PageRange.ALL_PAGES.equals(ranges[0])) {
+            mPrintRanges = null;
+        } else {
+            mPrintRanges = ranges;
+        }
+    }
+
+    /**
+     * Returns the numbers of the pages to be printed, as selected
+     * by {@link #setPrintPages(int...)} or {@link #setPrintPageRanges(PageRange...)}.
+     * Pages that do not exist in the current document are left out.
+     *
+     * @return page numbers
+     */
+    @NonNull
+    int[] getPrintPages() {
+        return getPrintPages(mPrintRanges, mDocument.getPageCount());
+    }
+
+    // Ranges are clipped to [0, count - 1]. Null ranges mean all pages.
+    @NonNull
+    static int[] getPrintPages(@Nullable PageRange[] ranges, int count) {
+        if (ranges == null) {
+            int[] pages = new int[count];
+            for (int i = 0; i < count; i++) pages[i] = i;
+            return pages;
+        }
+        int size = 0;
+        for (PageRange range : ranges) {
+            size += Math.max(0, Math.min(range.getEnd(), count - 1) - Math.max(range.getStart(), 0) + 1);
+        }
+        int[] pages = new int[size];
+        int index = 0;
+        for (PageRange range : ranges) {
+            int end = Math.min(range.getEnd(), count - 1);
+            for (int page = Math.max(range.getStart(), 0); page <= end; page++) {
+                pages[index++] = page;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * Sets the executor that will run the background work of this printer,
+     * like encoding and writing files. If null, which is the default, a shared executor
+     * is used by all printers. It is created lazily, runs at most one thread per processor,
+     * and lets its threads die when idle.
+     *
+     * @param executor an executor, or null to use the shared one
+     */
+    public void setExecutor(@Nullable Executor executor) {
+        mExecutor = executor;
+    }
+
+    @NonNull
+    Executor getExecutor() {
+        return mExecutor != null ? mExecutor : getDefaultExecutor();
+    }
+
+    private static synchronized Executor getDefaultExecutor() {
+        if (sDefaultExecutor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                    30L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(),
+                    createThreadFactory(Printer.class.getSimpleName() + "Worker-"));
+            executor.allowCoreThreadTimeOut(true);
+            sDefaultExecutor = executor;
+        }
+        return sDefaultExecutor;
+    }
+
+    static ThreadFactory createThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                return new Thread(runnable, name + mCount.getAndIncrement());
+            }
+        };
+    }
+
+    boolean checkPreview(final PrintJob job, final PrintTarget target) {
+        if (job.isCancelled()) {
+            job.finish();
+            return false;
+        } else if (!mDocument.isAttachedToWindow()) {
+            mCallback.onPrintFailed(job.getId(), new IllegalStateException("Preview not added to window."));
+            job.finish();
             return false;
         } else if (!mDocument.isLaidOut()) {
             mDocument.getViewTreeObserver().addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
                 @Override
                 public void onGlobalLayout() {
                     mDocument.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                    print(id, directory, name);
+                    print(job, target);
                 }
             });
             return false;
@@ -122,6 +261,91 @@ public abstract class Printer {
         }
     }
 
+    void dispatchOnPrintProgress(PrintJob job) {
+        if (mCallback instanceof PrintProgressCallback) {
+            ((PrintProgressCallback) mCallback).onPrintProgress(job.getId(), job);
+        }
+    }
+
+    void dispatchOnPrintStats(PrintJob job, PrintStats stats) {
+        stats.end(job);
+        if (mCallback instanceof PrintStatsCallback) {
+            ((PrintStatsCallback) mCallback).onPrintStats(job.getId(), stats);
+        }
+    }
+
+    /**
+     * Records the page into a display list that can be drawn later, in any thread.
+     * Must be called in the UI thread.
+     *
+     * @param view the page
+     * @param stats the process stats
+     * @param index the page index in the process
+     * @return the recorded page
+     */
+    @NonNull
+    Picture recordPage(@NonNull DocumentPage view, @NonNull PrintStats stats, int index) {
+        return recordPage(view, stats, index, null);
+    }
+
+    /**
+     * Like {@link #recordPage(DocumentPage, PrintStats, int)}, but bitmaps are swapped
+     * with their shared instance, if a canon is given. Swapping happens while the page is
+     * printing, so it does not count as a content change.
+     *
+     * @param view the page
+     * @param stats the process stats
+     * @param index the page index in the process
+     * @param canon the shared bitmaps, or null
+     * @return the recorded page
+     */
+    @NonNull
+    Picture recordPage(@NonNull DocumentPage view, @NonNull PrintStats stats, int index,
+                       @Nullable BitmapCanon canon) {
+        view.setPrinting(true);
+        Drawable background = null;
+        if (!mPrintBackground) {
+            background = view.getBackground();
+            view.setBackground(null);
+        }
+        if (canon != null) {
+            long start = System.nanoTime();
+            canon.apply(view, stats);
+            stats.addTime(index, PrintStats.PHASE_RECORD, start);
+        }
+
+        // Tried this to have shadows drawing but no success.
+        // view.setWillNotCacheDrawing(false);
+        // view.destroyDrawingCache();
+        // view.buildDrawingCache();
+        // canvas.drawBitmap(view.getDrawingCache(), 0, 0, null);
+
+        // We might go back to the main loop before the next page,
+        // so only this page enters the print mode.
+        long start = System.nanoTime();
+        dispatchOnPrePrint(view);
+        stats.addTime(index, PrintStats.PHASE_PRE_PRINT, start);
+        start = System.nanoTime();
+        Picture picture = new Picture();
+        view.draw(picture.beginRecording(view.getWidth(), view.getHeight()));
+        picture.endRecording();
+        stats.addTime(index, PrintStats.PHASE_RECORD, start);
+        stats.mPicturesRecorded++;
+        start = System.nanoTime();
+        dispatchOnPostPrint(view);
+        stats.addTime(index, PrintStats.PHASE_PRE_PRINT, start);
+        if (canon != null) {
+            start = System.nanoTime();
+            canon.restore();
+            stats.addTime(index, PrintStats.PHASE_RECORD, start);
+        }
+        if (!mPrintBackground) {
+            view.setBackground(background);
+        }
+        view.setPrinting(false);
+        return picture;
+    }
+
     static void dispatchOnPrePrint(DocumentView document) {
         int count = document.getPageCount();
         for (int i = 0; i < count; i++) {
@@ -129,7 +353,7 @@ public abstract class Printer {
         }
     }
 
-    private static void dispatchOnPrePrint(View view) {
+    static void dispatchOnPrePrint(View view) {
         if (view instanceof Printable) {
             ((Printable) view).onPrePrint();
         }
@@ -148,7 +372,7 @@ public abstract class Printer {
         }
     }
 
-    private static void dispatchOnPostPrint(View view) {
+    static void dispatchOnPostPrint(View view) {
         if (view instanceof Printable) {
             ((Printable) view).onPostPrint();
         }
@@ -160,6 +384,97 @@ public abstract class Printer {
         }
     }
 
-    public abstract void print(String printId, @NonNull File directory, String filename);
+    // Returns null if we are waiting for permissions.
+    @Nullable
+    private PrintTarget createTarget(PrintJob job, File directory, String filename) {
+        Context context = mDocument.getContext();
+        if (!checkPermission(context, directory)) {
+            job.finish();
+            return null;
+        }
+        if (filename.toLowerCase().endsWith(mFormat)) {
+            filename = filename.substring(0, filename.length() - mFormat.length());
+        }
+        return PrintTarget.file(directory, filename);
+    }
+
+    /**
+     * Prints the current view to files in the given directory.
+     * The returned {@link PrintJob} can be used to cancel the process.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param directory a directory where the files will be saved
+     * @param filename the output file name
+     * @return a handle to the print process
+     */
+    @NonNull
+    public PrintJob print(String printId, @NonNull File directory, @NonNull String filename) {
+        PrintJob job = new PrintJob(printId);
+        PrintTarget target = createTarget(job, directory, filename);
+        if (target != null) print(job, target);
+        return job;
+    }
+
+    /**
+     * Prints the current view to streams provided by the given factory,
+     * instead of files. {@link PrintCallback#onPrint(String, File)} will be called
+     * with a null file each time an output was written.
+     * The returned {@link PrintJob} can be used to cancel the process.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param factory a factory for output streams
+     * @return a handle to the print process
+     */
+    @NonNull
+    public PrintJob print(String printId, @NonNull PrintStreamFactory factory) {
+        PrintJob job = new PrintJob(printId);
+        print(job, PrintTarget.stream(factory));
+        return job;
+    }
+
+    /**
+     * Like {@link #print(String, File, String)}, but the job is added to a queue that is
+     * shared by all printers of this {@link DocumentView}, and runs after the previous ones
+     * have ended. If a queued job is going to write the same files, it is cancelled and
+     * replaced by this one, so that bursts of requests (e.g. a thumbnail refresh on each edit)
+     * only cost a single print.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param directory a directory where the files will be saved
+     * @param filename the output file name
+     * @return a handle to the print process
+     */
+    @NonNull
+    public PrintJob enqueue(String printId, @NonNull File directory, @NonNull String filename) {
+        PrintJob job = new PrintJob(printId);
+        PrintTarget target = createTarget(job, directory, filename);
+        if (target != null) mDocument.getPrintScheduler().enqueue(this, job, target);
+        return job;
+    }
+
+    /**
+     * Like {@link #print(String, PrintStreamFactory)}, but the job is added to a queue that is
+     * shared by all printers of this {@link DocumentView}, and runs after the previous ones
+     * have ended. Stream jobs are never coalesced.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param factory a factory for output streams
+     * @return a handle to the print process
+     */
+    @NonNull
+    public PrintJob enqueue(String printId, @NonNull PrintStreamFactory factory) {
+        PrintJob job = new PrintJob(printId);
+        mDocument.getPrintScheduler().enqueue(this, job, PrintTarget.stream(factory));
+        return job;
+    }
+
+    /**
+     * Runs the print process. Implementors must call {@link PrintJob#finish()}
+     * in the UI thread when the process ends, whatever the outcome.
+     *
+     * @param job the job
+     * @param target the output target
+     */
+    abstract void print(@NonNull PrintJob job, @NonNull PrintTarget target);
 
 }
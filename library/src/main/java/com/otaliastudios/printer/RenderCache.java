@@ -0,0 +1,240 @@
+package com.otaliastudios.printer;
+
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A memory cache of encoded pages, keyed by the content of the page
+ * and by the output options. When a page was already encoded, its bytes can be written
+ * from here instead of recording, drawing and compressing it again.
+ *
+ * Page contents are identified by their {@link DocumentPage#getContentVersion()}, which is unique
+ * within a process, and is not shared by pages with the same content. Entries could never be found
+ * after a restart, so nothing is written to disk.
+ *
+ * When the cache goes over its byte budget, the least recently used entries are dropped.
+ * There is a single instance, shared by all printers. Each printer sets
+ * its own budget, and the greatest one is used.
+ * This is accessed by the encoder threads.
+ */
+class RenderCache {
+
+    private static final String TAG = RenderCache.class.getSimpleName();
+    private static final PrinterLogger LOG = PrinterLogger.create(TAG);
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static RenderCache sCache;
+
+    /**
+     * Returns the cache, creating it if needed.
+     *
+     * @return the cache
+     */
+    static synchronized RenderCache get() {
+        if (sCache == null) sCache = new RenderCache();
+        return sCache;
+    }
+
+    private final LinkedHashMap<String, byte[]> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Object, Long> mBudgets = new WeakHashMap<>();
+    private long mMaxBytes;
+    private long mBytes;
+
+    private RenderCache() {}
+
+    /**
+     * Sets the budget of the given owner. The cache uses the greatest budget
+     * among its owners, so printers don't override each other.
+     *
+     * @param owner the owner, held weakly
+     * @param maxBytes the owner budget in bytes
+     */
+    synchronized void setMaxBytes(@NonNull Object owner, long maxBytes) {
+        mBudgets.put(owner, maxBytes);
+        updateMaxBytes();
+    }
+
+    /**
+     * Removes the budget of the given owner, that is not using this cache anymore.
+     *
+     * @param owner the owner
+     */
+    synchronized void removeOwner(@NonNull Object owner) {
+        mBudgets.remove(owner);
+        updateMaxBytes();
+    }
+
+    private void updateMaxBytes() {
+        long maxBytes = 0;
+        for (Long budget : mBudgets.values()) {
+            maxBytes = Math.max(maxBytes, budget);
+        }
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Returns the cache key for the given page content and output options.
+     *
+     * @param version the page content version
+     * @param options the output options, like size and format
+     * @return a key
+     */
+    static String key(long version, String options) {
+        return version + ":" + options;
+    }
+
+    /**
+     * Computes a SHA-1 hash of the bitmap pixels, size and of the given options.
+     * This reads the pixels a row at a time, so it is not cheap for big bitmaps.
+     *
+     * @param bitmap a software bitmap
+     * @param options a string to be hashed together with pixels
+     * @return a hex hash
+     */
+    static String hash(Bitmap bitmap, String options) {
+        MessageDigest digest = createDigest();
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width];
+        ByteBuffer row = ByteBuffer.allocate(width * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(pixels, 0, width, 0, y, width, 1);
+            row.clear();
+            row.asIntBuffer().put(pixels);
+            digest.update(row.array());
+        }
+        digest.update((width + "x" + height + ":" + options).getBytes());
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Whether the cache has an entry for the given key.
+     * The entry might still be dropped before it is read.
+     *
+     * @param key the entry key
+     * @return true if found
+     */
+    synchronized boolean contains(String key) {
+        return mEntries.containsKey(key);
+    }
+
+    /**
+     * Returns the cached bytes for the given key. They must not be modified.
+     *
+     * @param key the entry key
+     * @return the bytes, or null if not found
+     */
+    @Nullable
+    synchronized byte[] get(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * Compresses the bitmap into the stream, and also stores the result
+     * into the cache with the given key. Nothing is stored if compressing fails,
+     * or if the result does not fit the budget.
+     *
+     * @param key the entry key
+     * @param bitmap the bitmap
+     * @param format the compress format
+     * @param quality the compress quality
+     * @param stream the output stream
+     * @throws IOException if writing to the stream fails, or the bitmap could not be compressed
+     */
+    void compress(String key, Bitmap bitmap, Bitmap.CompressFormat format, int quality,
+                  final OutputStream stream) throws IOException {
+        final long maxBytes;
+        synchronized (this) {
+            maxBytes = mMaxBytes;
+        }
+        final ByteArrayOutputStream cache = new ByteArrayOutputStream();
+        final boolean[] skipped = new boolean[1];
+        BitmapPrinter.compress(bitmap, format, quality, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{ (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(@NonNull byte[] b, int off, int len) throws IOException {
+                stream.write(b, off, len);
+                if (skipped[0]) return;
+                if (cache.size() + len > maxBytes) {
+                    skipped[0] = true;
+                    cache.reset();
+                    return;
+                }
+                cache.write(b, off, len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                stream.flush();
+            }
+        });
+        if (skipped[0]) {
+            LOG.v("compress:", "entry is bigger than the budget, not storing.");
+            return;
+        }
+        byte[] bytes = cache.toByteArray();
+        synchronized (this) {
+            byte[] previous = mEntries.put(key, bytes);
+            if (previous != null) mBytes -= previous.length;
+            mBytes += bytes.length;
+            trim();
+        }
+    }
+
+    /**
+     * Drops all entries.
+     */
+    synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, byte[]>> iterator = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            iterator.remove();
+            mBytes -= entry.getValue().length;
+        }
+    }
+}
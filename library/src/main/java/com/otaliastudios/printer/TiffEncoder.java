@@ -0,0 +1,174 @@
+package com.otaliastudios.printer;
+
+
+import android.graphics.Bitmap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A streaming, multi-page TIFF encoder. Pages are written one after the other,
+ * so only the current page needs to be in memory, and the stream never needs to seek.
+ *
+ * Output is little-endian, 8-bit RGB, with Deflate compression and the horizontal
+ * differencing predictor. Each page is a single strip, preceded by its directory:
+ * we compress the page in memory first, so that we know all offsets before writing.
+ */
+class TiffEncoder {
+
+    private static final int BYTES_PER_PIXEL = 3;
+    private static final int ENTRIES = 16;
+    private static final int DIRECTORY_SIZE = 2 + ENTRIES * 12 + 4;
+    private static final int EXTRA_SIZE = 8 + 8 + 8; // BitsPerSample (padded), XResolution, YResolution
+    private static final long MAX_SIZE = 0xFFFFFFFFL;
+
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_RATIONAL = 5;
+
+    private final OutputStream mStream;
+    private final int mPageCount;
+    private final ByteArrayOutputStream mStrip = new ByteArrayOutputStream();
+    private final byte[] mBuffer = new byte[12];
+    private long mOffset = 0;
+    private int mPages = 0;
+
+    TiffEncoder(OutputStream stream, int pageCount) throws IOException {
+        mStream = stream;
+        mPageCount = pageCount;
+        mBuffer[0] = 'I';
+        mBuffer[1] = 'I';
+        mStream.write(mBuffer, 0, 2);
+        writeShort(42);
+        writeInt(8); // First directory comes right after the header.
+        mOffset = 8;
+    }
+
+    /**
+     * Encodes the next page. The bitmap should be opaque: alpha is dropped.
+     *
+     * @param page the page bitmap
+     * @param dpi the page resolution, in dots per inch
+     * @throws IOException if writing fails
+     */
+    void encode(Bitmap page, float dpi) throws IOException {
+        if (mPages == mPageCount) {
+            throw new IllegalStateException("Got more pages than expected: " + mPageCount);
+        }
+        int width = page.getWidth();
+        int height = page.getHeight();
+        compress(page, width, height);
+        int stripSize = mStrip.size();
+        int padding = stripSize % 2; // Directories must start on a word boundary.
+        long directory = mOffset;
+        long extra = directory + DIRECTORY_SIZE;
+        long strip = extra + EXTRA_SIZE;
+        long end = strip + stripSize + padding;
+        if (end > MAX_SIZE) {
+            throw new IOException("TIFF files can not be larger than 4GB.");
+        }
+        long next = mPages == mPageCount - 1 ? 0 : end;
+        int resolution = Math.round(dpi * 100);
+
+        // Directory, with entries sorted by tag.
+        writeShort(ENTRIES);
+        writeEntry(254, TYPE_LONG, 1, 2); // NewSubfileType: page of a multi-page image
+        writeEntry(256, TYPE_LONG, 1, width); // ImageWidth
+        writeEntry(257, TYPE_LONG, 1, height); // ImageLength
+        writeEntry(258, TYPE_SHORT, 3, extra); // BitsPerSample
+        writeShortEntry(259, 8); // Compression: Deflate
+        writeShortEntry(262, 2); // PhotometricInterpretation: RGB
+        writeEntry(273, TYPE_LONG, 1, strip); // StripOffsets
+        writeShortEntry(277, BYTES_PER_PIXEL); // SamplesPerPixel
+        writeEntry(278, TYPE_LONG, 1, height); // RowsPerStrip
+        writeEntry(279, TYPE_LONG, 1, stripSize); // StripByteCounts
+        writeEntry(282, TYPE_RATIONAL, 1, extra + 8); // XResolution
+        writeEntry(283, TYPE_RATIONAL, 1, extra + 16); // YResolution
+        writeShortEntry(284, 1); // PlanarConfiguration: chunky
+        writeShortEntry(296, 2); // ResolutionUnit: inch
+        writeEntry(297, TYPE_SHORT, 2, mPages | (mPageCount << 16)); // PageNumber
+        writeShortEntry(317, 2); // Predictor: horizontal differencing
+        writeInt(next);
+
+        // Values that do not fit into their entry.
+        writeShort(8);
+        writeShort(8);
+        writeShort(8);
+        writeShort(0);
+        writeInt(resolution);
+        writeInt(100);
+        writeInt(resolution);
+        writeInt(100);
+
+        mStrip.writeTo(mStream);
+        if (padding > 0) mStream.write(0);
+        mStrip.reset();
+        mOffset = end;
+        mPages++;
+    }
+
+    /**
+     * Called after the last page was encoded. This does not close the underlying stream.
+     *
+     * @throws IOException if writing fails
+     */
+    void finish() throws IOException {
+        if (mPages != mPageCount) {
+            throw new IllegalStateException("Got " + mPages + " pages, expected " + mPageCount);
+        }
+        mStream.flush();
+    }
+
+    private void compress(Bitmap page, int width, int height) throws IOException {
+        int[] pixels = new int[width];
+        byte[] row = new byte[width * BYTES_PER_PIXEL];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        DeflaterOutputStream data = new DeflaterOutputStream(mStrip, deflater);
+        try {
+            for (int y = 0; y < height; y++) {
+                page.getPixels(pixels, 0, width, 0, y, width, 1);
+                int previous = 0;
+                for (int x = 0, i = 0; x < width; x++, i += BYTES_PER_PIXEL) {
+                    int color = pixels[x];
+                    row[i] = (byte) ((color >> 16) - (previous >> 16));
+                    row[i + 1] = (byte) ((color >> 8) - (previous >> 8));
+                    row[i + 2] = (byte) (color - previous);
+                    previous = color;
+                }
+                data.write(row);
+            }
+            data.finish();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeEntry(int tag, int type, int count, long value) throws IOException {
+        writeShort(tag);
+        writeShort(type);
+        writeInt(count);
+        writeInt(value);
+    }
+
+    // Short values are left-justified in the value field.
+    private void writeShortEntry(int tag, int value) throws IOException {
+        writeEntry(tag, TYPE_SHORT, 1, value & 0xFFFF);
+    }
+
+    private void writeShort(int value) throws IOException {
+        mBuffer[0] = (byte) value;
+        mBuffer[1] = (byte) (value >> 8);
+        mStream.write(mBuffer, 0, 2);
+    }
+
+    private void writeInt(long value) throws IOException {
+        mBuffer[0] = (byte) value;
+        mBuffer[1] = (byte) (value >> 8);
+        mBuffer[2] = (byte) (value >> 16);
+        mBuffer[3] = (byte) (value >> 24);
+        mStream.write(mBuffer, 0, 4);
+    }
+}
@@ -0,0 +1,310 @@
+package com.otaliastudios.printer;
+
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Picture;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * A printer instance that can print documents preview from {@link DocumentView}
+ * to a single, multi-page TIFF file - just pass the file to {@link #print(String, File, String)}.
+ *
+ * Unlike {@link PngPrinter} and {@link JpegPrinter}, all pages go into the same file,
+ * which is opened once and written page by page: only one page bitmap is alive at a time,
+ * so {@link #setMaxPagesInFlight(int)} has no effect.
+ * Pages are opaque, compressed with Deflate and carry the print resolution.
+ * Since the file is always written as a whole, {@link #setPrintIncremental(boolean)},
+ * {@link #setPrintCacheSize(long)} and {@link #setPrintContactSheet(int)} are not supported
+ * and throw if enabled.
+ *
+ * The only requirement currently is for the view to be actually attached to a window.
+ * The printer will wait for the next layout pass if necessary.
+ *
+ * The printer will try to automatically request write and read permissions for your file,
+ * but you need to pass the result of {@link #onRequestPermissionRequest(int, String[], int[])}
+ * from your activity or fragment, and if true, call print again.
+ */
+public final class TiffPrinter extends BitmapPrinter {
+
+    public static final int PERMISSION_CODE = 286;
+    private static final String TAG = TiffPrinter.class.getSimpleName();
+    private static final PrinterLogger LOG = PrinterLogger.create(TAG);
+
+    public TiffPrinter(@NonNull DocumentView document, @NonNull PrintCallback callback) {
+        super(PERMISSION_CODE, null, ".tiff", document, callback);
+    }
+
+    @Override
+    protected int getPrintQuality() {
+        return 100;
+    }
+
+    /**
+     * Not supported: the file is always written as a whole.
+     *
+     * @param incremental must be false
+     * @throws UnsupportedOperationException if true
+     */
+    @Override
+    public void setPrintIncremental(boolean incremental) {
+        if (incremental) {
+            throw new UnsupportedOperationException("TiffPrinter does not support incremental prints.");
+        }
+        super.setPrintIncremental(false);
+    }
+
+    /**
+     * Not supported: pages are encoded by our own encoder, which can't be cached.
+     *
+     * @param maxBytes must be 0
+     * @throws UnsupportedOperationException if greater than 0
+     */
+    @Override
+    public void setPrintCacheSize(long maxBytes) {
+        if (maxBytes > 0) {
+            throw new UnsupportedOperationException("TiffPrinter does not support the print cache.");
+        }
+        super.setPrintCacheSize(maxBytes);
+    }
+
+    /**
+     * Not supported: pages are always written as separate TIFF pages.
+     *
+     * @param columns must be 0
+     * @throws UnsupportedOperationException if greater than 0
+     */
+    @Override
+    public void setPrintContactSheet(int columns) {
+        if (columns > 0) {
+            throw new UnsupportedOperationException("TiffPrinter does not support contact sheets.");
+        }
+        super.setPrintContactSheet(columns);
+    }
+
+    /**
+     * Sets the numbers of the pages which should be printed.
+     * To print all pages (which is the default), you can pass {@link #PRINT_ALL}
+     * as the only parameter.
+     *
+     * @param pageNumbers any number of pages to be printed
+     */
+    @Override
+    public void setPrintPages(int... pageNumbers) {
+        super.setPrintPages(pageNumbers);
+    }
+
+    /**
+     * This will apply a scale (0...1) to the document print size, so that the result image
+     * is scaled to a smaller version. Defaults to 1, meaning that the output size is the
+     * document {@link PrintSize}. The resolution stored in the file is scaled accordingly.
+     *
+     * @param scale a scale greater than 0 and less than or equal to 1
+     */
+    @Override
+    public void setPrintScale(float scale) {
+        super.setPrintScale(scale);
+    }
+
+    /**
+     * Prints the current view to a TIFF file, in the given directory and with the given
+     * filename. All pages are written into this file, and the callback is called once.
+     * If the file exists, it will be deleted.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param directory a directory where the file will be saved
+     * @param filename the output file name
+     * @return a handle to the print process
+     */
+    @NonNull
+    @Override
+    public PrintJob print(String printId, @NonNull File directory, @NonNull String filename) {
+        return super.print(printId, directory, filename);
+    }
+
+    /**
+     * Prints the current view as a TIFF image to a single stream provided by the given factory.
+     * The stream is written sequentially and never needs to seek.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param factory a factory for output streams
+     * @return a handle to the print process
+     */
+    @NonNull
+    @Override
+    public PrintJob print(String printId, @NonNull PrintStreamFactory factory) {
+        return super.print(printId, factory);
+    }
+
+    @Override
+    void print(@NonNull PrintJob job, @NonNull PrintTarget target) {
+        if (!checkPreview(job, target)) return;
+        int[] pages = getPrintPages();
+        if (pages.length == 0) {
+            job.finish();
+            return;
+        }
+        Writer writer = new Writer(job, target, target.getFile(mFormat), pages);
+        job.setPageCount(pages.length);
+        writer.start();
+    }
+
+    /**
+     * Records one page at a time on the UI thread, then draws it into the page bitmap
+     * in the executor and appends it to the file. Only when it is written, we record
+     * the next page, so memory is bounded by a single page.
+     */
+    private class Writer {
+
+        private final PrintJob mJob;
+        private final String mPrintId;
+        private final PrintTarget mTarget;
+        private final File mFile;
+        private final int[] mPages;
+        private final Handler mUi = new Handler();
+        private final Executor mWorker = getExecutor();
+        private final PrintStats mStats;
+        private final float mScale;
+        private final float mDpi;
+        private final int mWidth;
+        private final int mHeight;
+
+        // These are only accessed by one thread at a time, since tasks run one after the other.
+        private int mNext = 0;
+        private Bitmap mBitmap;
+        private OutputStream mStream;
+        private TiffEncoder mEncoder;
+
+        private Writer(PrintJob job, PrintTarget target, File file, int[] pages) {
+            mJob = job;
+            mPrintId = job.getId();
+            mTarget = target;
+            mFile = file;
+            mPages = pages;
+            mStats = new PrintStats(pages);
+            Context context = mDocument.getContext();
+            PrintSize size = mDocument.getPrintSize();
+            mScale = getOutputScale();
+            mWidth = (int) (size.widthPixels(context) * mScale);
+            mHeight = (int) (size.heightPixels(context) * mScale);
+            mDpi = mScale / PrintSize.PIXELS_TO_INCHES(context);
+        }
+
+        private void start() {
+            long start = System.nanoTime();
+            if (mFile != null && !checkFile(mPrintId, mFile)) {
+                mJob.finish();
+                return; // Error!
+            }
+            mStats.addTime(-1, PrintStats.PHASE_FILE, start);
+            recordNext();
+        }
+
+        private void recordNext() {
+            if (mJob.isCancelled()) {
+                mWorker.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        close(false, null);
+                    }
+                });
+                return;
+            }
+
+            // The document might have changed since we started. Missing pages are left blank.
+            final int index = mNext;
+            int page = mPages[index];
+            final Picture picture = page < mDocument.getPageCount() ?
+                    recordPage(mDocument.getPageAt(page), mStats, index) : null;
+            mJob.onPagesRendered(1);
+            dispatchOnPrintProgress(mJob);
+            final boolean last = ++mNext == mPages.length;
+
+            mWorker.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long start = System.nanoTime();
+                        if (mStream == null) {
+                            mStream = mJob.wrap(mTarget.open(mPrintId, 0, mFile));
+                            mEncoder = new TiffEncoder(mStream, mPages.length);
+                            mStats.addTime(index, PrintStats.PHASE_FILE, start);
+                        }
+                        if (mBitmap == null) mBitmap = obtainBitmap(mWidth, mHeight, mStats);
+                        start = System.nanoTime();
+                        mBitmap.eraseColor(Color.WHITE);
+                        if (picture != null) {
+                            Canvas canvas = createCanvas(mBitmap);
+                            canvas.scale(mScale, mScale);
+                            picture.draw(canvas);
+                        }
+                        mStats.addTime(index, PrintStats.PHASE_DRAW, start);
+                        start = System.nanoTime();
+                        mEncoder.encode(mBitmap, mDpi);
+                        if (last) mEncoder.finish();
+                        mStats.addTime(index, PrintStats.PHASE_ENCODE, start);
+                        mJob.onPagesEncoded(1);
+                    } catch (IOException e) {
+                        LOG.e("print:", "got error on page:", index, "error:", e);
+                        close(false, mTarget.error(0, mFile, e));
+                        return;
+                    }
+
+                    if (last) {
+                        close(true, null);
+                    } else {
+                        mUi.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (!mJob.isCancelled()) dispatchOnPrintProgress(mJob);
+                                recordNext();
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        // Called in the worker. Closes the file and notifies the callback.
+        private void close(boolean complete, Throwable error) {
+            if (mStream != null) {
+                long start = System.nanoTime();
+                try {
+                    mStream.close();
+                    mStats.addTime(-1, PrintStats.PHASE_FILE, start);
+                } catch (IOException e) {
+                    if (complete) error = mTarget.error(0, mFile, e);
+                    complete = false;
+                }
+            }
+            if (mBitmap != null) releaseBitmap(mBitmap);
+            final boolean success = complete && !mJob.isCancelled();
+            final Throwable failure = error;
+            mJob.onFileClosed(mFile, success);
+            mUi.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!mJob.isCancelled()) {
+                        if (success) {
+                            LOG.i("print:", "all pages encoded.");
+                            mCallback.onPrint(mPrintId, mFile);
+                            dispatchOnPrintProgress(mJob);
+                            dispatchOnPrintStats(mJob, mStats);
+                        } else if (failure != null) {
+                            mCallback.onPrintFailed(mPrintId, failure);
+                        }
+                    }
+                    mJob.finish();
+                }
+            });
+        }
+    }
+}
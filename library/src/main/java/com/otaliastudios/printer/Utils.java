@@ -14,6 +14,7 @@ class Utils {
 
     private static final int UNTAKABLE = R.id.untakable;
     private static final int VIEW_NUMBER = R.id.viewNumber;
+    private static final int HEIGHT_CACHE = R.id.heightCache;
     // static final int WIDTH_BOUND = R.id.widthBound;
     // static final int HEIGHT_BOUND = R.id.heightBound;
     // static final int UNBOUNDED_HEIGHT = R.id.unboundedHeight;
@@ -68,10 +69,7 @@ class Utils {
      * - estimated height: if this view has simple LayoutParams
      *
      * If both checks do fail, the view must be measured again, and we return -1.
-     *
-     * TODO: add a third check that acts as a kind of cache using view tags.
-     * We must be sure to invalidate the cache at the right time though...
-     * The view might change, it's layout params might change the margins...
+     * Results can be stored with {@link #setCachedHeight(View, int, int, int)}.
      *
      * @param child to be measured
      * @param heightBound a vertical boundary
@@ -116,6 +114,67 @@ class Utils {
 
     }
 
+    /**
+     * The height of a view, together with the values it was computed from.
+     * If any of these has changed, the entry is not valid anymore.
+     */
+    private static class CachedHeight {
+        private int mHeight;
+        private int mWidthBound;
+        private int mHeightBound;
+        private ViewGroup.LayoutParams mParams;
+        private int mParamsHeight;
+        private int mTopMargin;
+        private int mBottomMargin;
+    }
+
+    /**
+     * Returns the height stored with {@link #setCachedHeight(View, int, int, int)}, or -1
+     * if there is none, or if bounds, layout params or margins have changed since.
+     * Content changes are not detected here: callers should clear the entry when the view
+     * is laid out with a different height.
+     *
+     * @param child the view
+     * @param widthBound a horizontal boundary
+     * @param heightBound a vertical boundary
+     * @return the cached height or -1
+     */
+    static int getCachedHeight(View child, int widthBound, int heightBound) {
+        CachedHeight cache = (CachedHeight) child.getTag(HEIGHT_CACHE);
+        if (cache == null) return -1;
+        ViewGroup.LayoutParams lp = child.getLayoutParams();
+        if (cache.mWidthBound != widthBound || cache.mHeightBound != heightBound) return -1;
+        if (cache.mParams != lp || cache.mParamsHeight != lp.height) return -1;
+        if (lp instanceof ViewGroup.MarginLayoutParams) {
+            ViewGroup.MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) lp;
+            if (cache.mTopMargin != mlp.topMargin || cache.mBottomMargin != mlp.bottomMargin) return -1;
+        }
+        return cache.mHeight;
+    }
+
+    static void setCachedHeight(View child, int widthBound, int heightBound, int height) {
+        CachedHeight cache = (CachedHeight) child.getTag(HEIGHT_CACHE);
+        if (cache == null) {
+            cache = new CachedHeight();
+            child.setTag(HEIGHT_CACHE, cache);
+        }
+        ViewGroup.LayoutParams lp = child.getLayoutParams();
+        cache.mHeight = height;
+        cache.mWidthBound = widthBound;
+        cache.mHeightBound = heightBound;
+        cache.mParams = lp;
+        cache.mParamsHeight = lp.height;
+        if (lp instanceof ViewGroup.MarginLayoutParams) {
+            ViewGroup.MarginLayoutParams mlp = (ViewGroup.MarginLayoutParams) lp;
+            cache.mTopMargin = mlp.topMargin;
+            cache.mBottomMargin = mlp.bottomMargin;
+        }
+    }
+
+    static void clearCachedHeight(View child) {
+        child.setTag(HEIGHT_CACHE, null);
+    }
+
     //endregion
 
     //region Keyboard
@@ -0,0 +1,153 @@
+package com.otaliastudios.printer;
+
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.OutputStream;
+
+/**
+ * A printer instance that can flawlessly print documents preview from {@link DocumentView}
+ * to a WebP file - just pass the file to {@link #print(String, File, String)}.
+ *
+ * WebP files are usually much smaller than PNG and faster to encode, in both lossy
+ * and lossless mode. See {@link #setPrintLossless(boolean)}.
+ *
+ * The only requirement currently is for the view to be actually attached to a window.
+ * The printer will wait for the next layout pass if necessary.
+ *
+ * The printer will try to automatically request write and read permissions for your file,
+ * but you need to pass the result of {@link #onRequestPermissionRequest(int, String[], int[])}
+ * from your activity or fragment, and if true, call print again.
+ */
+public final class WebpPrinter extends BitmapPrinter {
+
+    public static final int PERMISSION_CODE = 287;
+    private static final String TAG = WebpPrinter.class.getSimpleName();
+
+    // Explicit formats were added in API 30. Before that, we only have WEBP, which
+    // is lossless with a quality of 100 starting from API 29, and always lossy before.
+    private static final Bitmap.CompressFormat WEBP_LOSSY = findFormat("WEBP_LOSSY");
+    private static final Bitmap.CompressFormat WEBP_LOSSLESS = findFormat("WEBP_LOSSLESS");
+    private static final int LOSSLESS_QUALITY_API = 29;
+
+    private int mQuality = 90;
+    private boolean mLossless = false;
+
+    public WebpPrinter(@NonNull DocumentView document, @NonNull PrintCallback callback) {
+        super(PERMISSION_CODE, Bitmap.CompressFormat.WEBP, ".webp", document, callback);
+    }
+
+    private static Bitmap.CompressFormat findFormat(String name) {
+        try {
+            return Bitmap.CompressFormat.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    Bitmap.CompressFormat getCompressFormat() {
+        Bitmap.CompressFormat format = mLossless ? WEBP_LOSSLESS : WEBP_LOSSY;
+        return format != null ? format : Bitmap.CompressFormat.WEBP;
+    }
+
+    @Override
+    protected int getPrintQuality() {
+        if (mLossless) {
+            // With the explicit format, quality is the compression effort.
+            return WEBP_LOSSLESS != null ? mQuality : 100;
+        } else if (WEBP_LOSSY == null && Build.VERSION.SDK_INT >= LOSSLESS_QUALITY_API) {
+            return Math.min(mQuality, 99);
+        }
+        return mQuality;
+    }
+
+    /**
+     * Defines the WebP compression quality. In lossy mode, this is the image quality.
+     * In lossless mode, this is the compression effort: higher values make smaller files
+     * but take longer to encode. Defaults to 90.
+     *
+     * @see Bitmap#compress(Bitmap.CompressFormat, int, OutputStream)
+     * @param quality a 0 to 100 value
+     */
+    public void setPrintQuality(int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("Quality must be >= 0 and <= 100.");
+        }
+        mQuality = quality;
+    }
+
+    /**
+     * Whether to use lossless compression, which keeps text perfectly sharp.
+     * Lossless WebP is only available starting from Android 10: on older devices,
+     * this falls back to lossy compression with the highest quality.
+     * Defaults to false.
+     *
+     * @param lossless true for lossless compression
+     */
+    public void setPrintLossless(boolean lossless) {
+        mLossless = lossless;
+    }
+
+    /**
+     * Sets the numbers of the pages which should be printed.
+     * To print all pages (which is the default), you can pass {@link #PRINT_ALL}
+     * as the only parameter.
+     *
+     * @param pageNumbers any number of pages to be printed
+     */
+    @Override
+    public void setPrintPages(int... pageNumbers) {
+        super.setPrintPages(pageNumbers);
+    }
+
+    /**
+     * This will apply a scale (0...1) to the document print size, so that the result image
+     * is scaled to a smaller version. Defaults to 1, meaning that the output size is the
+     * document {@link PrintSize}.
+     * <p>
+     * This is useful, for example, for keeping cached previews of the documents.
+     *
+     * @param scale a scale greater than 0 and less than or equal to 1
+     */
+    @Override
+    public void setPrintScale(float scale) {
+        super.setPrintScale(scale);
+    }
+
+    /**
+     * Prints the current view to a WebP file, in the given directory and with the given
+     * base name. If the document has multiple pages, we will print multiple WebPs by adding
+     * count suffix to the file (e.g. file-1.webp, file-2.webp).
+     * This also means that the callback will be called multiple times.
+     *
+     * If any of the files exist, it will be deleted.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param directory a directory where the file will be saved
+     * @param filename the output base name, with no suffix
+     * @return a handle to the print process
+     */
+    @NonNull
+    @Override
+    public PrintJob print(String printId, @NonNull File directory, @NonNull String filename) {
+        return super.print(printId, directory, filename);
+    }
+
+    /**
+     * Prints the current view as WebP images to streams provided by the given factory,
+     * one stream per page. The factory is passed the page number.
+     *
+     * @param printId an (optional) identifier for the process
+     * @param factory a factory for output streams
+     * @return a handle to the print process
+     */
+    @NonNull
+    @Override
+    public PrintJob print(String printId, @NonNull PrintStreamFactory factory) {
+        return super.print(printId, factory);
+    }
+}
@@ -0,0 +1,60 @@
+package com.otaliastudios.printer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class AutoSplitTextHelperTest {
+
+    private final static String TEXT = "aaaa bbbb cccc dddd eeee";
+    private final static int[] STARTS = new int[]{0, 5, 10, 15, 20};
+    private final static int[] TOPS = new int[]{0, 10, 20, 30, 40, 50};
+
+    private static int[] breaks(int[] tops, int padding, int firstSpace, int space) {
+        return AutoSplitTextHelper.Plan.computeBreaks(TEXT, tops, STARTS, padding, firstSpace, space);
+    }
+
+    @Test
+    public void testComputeBreaks_fits() {
+        assertArrayEquals(new int[0], breaks(TOPS, 0, 50, 50));
+    }
+
+    @Test
+    public void testComputeBreaks_split() {
+        assertArrayEquals(new int[]{10, 20}, breaks(TOPS, 0, 20, 20));
+    }
+
+    @Test
+    public void testComputeBreaks_firstSpace() {
+        // The first view only has room for a line, the others for four.
+        assertArrayEquals(new int[]{5}, breaks(TOPS, 0, 10, 40));
+    }
+
+    @Test
+    public void testComputeBreaks_padding() {
+        assertArrayEquals(new int[]{5, 15}, breaks(TOPS, 5, 20, 25));
+    }
+
+    @Test
+    public void testComputeBreaks_noRoom() {
+        // Not even a line fits in the first view.
+        assertNull(breaks(TOPS, 0, 5, 50));
+    }
+
+    @Test
+    public void testComputeBreaks_tallLine() {
+        // The second line does not fit anywhere. It gets a view of its own.
+        int[] tops = new int[]{0, 10, 40, 50, 60, 70};
+        assertArrayEquals(new int[]{5, 10, 20}, breaks(tops, 0, 10, 20));
+    }
+
+    @Test
+    public void testComputeBreaks_newline() {
+        // Newlines are passed to the next view.
+        String text = "aaaa\nbbbb";
+        int[] breaks = AutoSplitTextHelper.Plan.computeBreaks(text,
+                new int[]{0, 10, 20}, new int[]{0, 5}, 0, 10, 10);
+        assertArrayEquals(new int[]{4}, breaks);
+    }
+}
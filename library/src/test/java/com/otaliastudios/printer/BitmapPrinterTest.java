@@ -0,0 +1,42 @@
+package com.otaliastudios.printer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class BitmapPrinterTest {
+
+    @Test
+    public void testCellsPerSheet_single() {
+        // 10 pages in 3 rows of 4.
+        assertEquals(12, BitmapPrinter.getCellsPerSheet(10, 4, 100, 100, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testCellsPerSheet_split() {
+        // Each row takes 2 * 10 * 10 * 4 = 800 bytes, so 2 rows fit.
+        assertEquals(4, BitmapPrinter.getCellsPerSheet(10, 2, 10, 10, 1600));
+        assertEquals(4, BitmapPrinter.getCellsPerSheet(10, 2, 10, 10, 2399));
+    }
+
+    @Test
+    public void testCellsPerSheet_atLeastOneRow() {
+        assertEquals(2, BitmapPrinter.getCellsPerSheet(10, 2, 10, 10, 100));
+        assertEquals(2, BitmapPrinter.getCellsPerSheet(10, 2, 10, 10, 0));
+    }
+
+    @Test
+    public void testCellsPerSheet_degenerate() {
+        // Zero sized cells must not divide by zero.
+        assertEquals(3, BitmapPrinter.getCellsPerSheet(3, 3, 0, 0, 1000));
+        assertEquals(3, BitmapPrinter.getCellsPerSheet(3, 3, 100, 0, 1000));
+        // Zero columns or pages still give at least a page per sheet.
+        assertEquals(1, BitmapPrinter.getCellsPerSheet(3, 0, 10, 10, 0));
+        assertEquals(1, BitmapPrinter.getCellsPerSheet(0, 1, 10, 10, 1000));
+    }
+}
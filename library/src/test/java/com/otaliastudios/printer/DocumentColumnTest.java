@@ -0,0 +1,133 @@
+package com.otaliastudios.printer;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class DocumentColumnTest {
+
+    private final static int WIDTH = 1000;
+    private final static int HEIGHT = 1000;
+
+    private DocumentColumn mColumn;
+
+    @Before
+    public void setUp() {
+        mColumn = new DocumentColumn(RuntimeEnvironment.application, 0, 0, WIDTH, HEIGHT);
+    }
+
+    private View take(int height) {
+        View view = new View(RuntimeEnvironment.application);
+        mColumn.take(view, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, height));
+        return view;
+    }
+
+    // What the next layout pass would do.
+    private void measure() {
+        mColumn.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(HEIGHT, View.MeasureSpec.EXACTLY));
+    }
+
+    private View create(int height) {
+        View view = new View(RuntimeEnvironment.application);
+        view.setLayoutParams(new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, height));
+        return view;
+    }
+
+    @Test
+    public void testCanTake() {
+        take(300);
+        take(400);
+        assertEquals(700, mColumn.getCurrentHeight());
+        assertTrue(mColumn.canTake(create(300), new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 300), false));
+        assertFalse(mColumn.canTake(create(301), new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 301), false));
+        assertTrue(mColumn.canTake(create(1000), new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 1000), true));
+    }
+
+    @Test
+    public void testMarginChange() {
+        take(300);
+        View last = take(400);
+        assertEquals(700, mColumn.getCurrentHeight());
+
+        // Changing the last bottom margin moves no child, but takes space
+        // once the change is applied by a layout pass.
+        LinearLayout.LayoutParams params = (LinearLayout.LayoutParams) last.getLayoutParams();
+        params.bottomMargin = 100;
+        last.requestLayout();
+        measure();
+        assertEquals(800, mColumn.getCurrentHeight());
+        assertFalse(mColumn.canTake(create(300), new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 300), false));
+    }
+
+    @Test
+    public void testParamsSwap() {
+        View first = take(300);
+        take(400);
+        assertEquals(700, mColumn.getCurrentHeight());
+
+        first.setLayoutParams(new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 100));
+        measure();
+        assertEquals(500, mColumn.getCurrentHeight());
+
+        // Params passed to canTake for a child are applied to it.
+        mColumn.canTake(first, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 200), false);
+        assertEquals(600, mColumn.getCurrentHeight());
+    }
+
+    @Test
+    public void testBoundsChange() {
+        take(ViewGroup.LayoutParams.MATCH_PARENT);
+        assertEquals(HEIGHT, mColumn.getCurrentHeight());
+        mColumn.setBounds(WIDTH, HEIGHT * 2);
+        assertEquals(HEIGHT * 2, mColumn.getCurrentHeight());
+    }
+
+    @Test
+    public void testChildRemoval() {
+        View first = take(300);
+        take(400);
+        assertEquals(700, mColumn.getCurrentHeight());
+        assertEquals(300, Utils.getCachedHeight(first, WIDTH, HEIGHT));
+
+        mColumn.release(first);
+        assertEquals(400, mColumn.getCurrentHeight());
+        assertEquals(-1, Utils.getCachedHeight(first, WIDTH, HEIGHT));
+
+        // The sum is updated as children come and go.
+        take(200);
+        assertEquals(600, mColumn.getCurrentHeight());
+    }
+
+    @Test
+    public void testRequestSpace() {
+        View view = new View(RuntimeEnvironment.application);
+        view.setMinimumHeight(250);
+        mColumn.take(view, new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT));
+        assertEquals(250, mColumn.getCurrentHeight());
+
+        // Content changes are not detected until the view is laid out again...
+        view.setMinimumHeight(500);
+        assertEquals(250, mColumn.getCurrentHeight());
+
+        // ... or until someone asks for space. See DocumentHelper.onSpaceOver().
+        view.measure(View.MeasureSpec.makeMeasureSpec(WIDTH, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        mColumn.requestSpace(250);
+        assertEquals(500, mColumn.getCurrentHeight());
+    }
+}
@@ -0,0 +1,78 @@
+package com.otaliastudios.printer;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class FrameSchedulerTest {
+
+    private final static int STEPS = 5;
+
+    private int mSteps;
+    private boolean mDone;
+
+    private final Runnable mOnDone = new Runnable() {
+        @Override
+        public void run() {
+            mDone = true;
+        }
+    };
+
+    private FrameScheduler.Task createTask(final long stepMillis) {
+        return new FrameScheduler.Task() {
+            @Override
+            public boolean step() {
+                if (stepMillis > 0) {
+                    try {
+                        Thread.sleep(stepMillis);
+                    } catch (InterruptedException ignore) {}
+                }
+                mSteps++;
+                return mSteps < STEPS;
+            }
+        };
+    }
+
+    @Before
+    public void setUp() {
+        // Frames only run when we call doFrame().
+        ShadowLooper.pauseMainLooper();
+    }
+
+    @Test
+    public void testNoBudget() {
+        new FrameScheduler(0, createTask(0), mOnDone).start();
+        assertEquals(STEPS, mSteps);
+        assertTrue(mDone);
+    }
+
+    @Test
+    public void testLargeBudget() {
+        new FrameScheduler(10000, createTask(0), mOnDone).doFrame(0);
+        assertEquals(STEPS, mSteps);
+        assertTrue(mDone);
+    }
+
+    @Test
+    public void testOneStepPerFrame() {
+        // Each step is over budget, but every frame still makes progress.
+        FrameScheduler scheduler = new FrameScheduler(1, createTask(2), mOnDone);
+        for (int frame = 1; frame < STEPS; frame++) {
+            scheduler.doFrame(0);
+            assertEquals(frame, mSteps);
+            assertFalse(mDone);
+        }
+        scheduler.doFrame(0);
+        assertEquals(STEPS, mSteps);
+        assertTrue(mDone);
+    }
+}
@@ -0,0 +1,163 @@
+package com.otaliastudios.printer;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class PngEncoderTest {
+
+    private final static byte[] SIGNATURE = new byte[]{ (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    // The decoded image, as ARGB colors, and how many IDAT chunks were found.
+    private static class Image {
+        private int width;
+        private int height;
+        private int[] pixels;
+        private int chunks;
+    }
+
+    private static int[] createPixels(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    // Encodes the pixels in bands of the given height.
+    private static byte[] encode(int[] pixels, int width, int height, int bandHeight) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        PngEncoder encoder = new PngEncoder(stream, width, height);
+        Bitmap band = Bitmap.createBitmap(width, bandHeight, Bitmap.Config.ARGB_8888);
+        for (int top = 0; top < height; top += bandHeight) {
+            int rows = Math.min(bandHeight, height - top);
+            for (int y = 0; y < rows; y++) {
+                for (int x = 0; x < width; x++) {
+                    band.setPixel(x, y, pixels[(top + y) * width + x]);
+                }
+            }
+            encoder.encode(band, rows);
+        }
+        encoder.finish();
+        return stream.toByteArray();
+    }
+
+    // Checks the chunk structure and CRCs, then inflates and unfilters the image data.
+    private static Image decode(byte[] bytes) throws Exception {
+        DataInputStream stream = new DataInputStream(new ByteArrayInputStream(bytes));
+        byte[] signature = new byte[SIGNATURE.length];
+        stream.readFully(signature);
+        assertArrayEquals(SIGNATURE, signature);
+
+        Image image = new Image();
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        String type = null;
+        boolean first = true;
+        while (stream.available() > 0) {
+            assertTrue("No chunks after IEND", !"IEND".equals(type));
+            int length = stream.readInt();
+            byte[] typeBytes = new byte[4];
+            stream.readFully(typeBytes);
+            type = new String(typeBytes, "US-ASCII");
+            byte[] content = new byte[length];
+            stream.readFully(content);
+            CRC32 crc = new CRC32();
+            crc.update(typeBytes);
+            crc.update(content);
+            assertEquals((int) crc.getValue(), stream.readInt());
+            assertEquals(first, type.equals("IHDR")); // IHDR comes first
+            first = false;
+            if (type.equals("IHDR")) {
+                assertEquals(13, length);
+                DataInputStream header = new DataInputStream(new ByteArrayInputStream(content));
+                image.width = header.readInt();
+                image.height = header.readInt();
+                assertEquals(8, header.readByte()); // Bit depth
+                assertEquals(6, header.readByte()); // RGBA
+                assertEquals(0, header.readByte());
+                assertEquals(0, header.readByte());
+                assertEquals(0, header.readByte());
+            } else if (type.equals("IDAT")) {
+                data.write(content);
+                image.chunks++;
+            } else {
+                assertEquals("IEND", type);
+                assertEquals(0, length);
+            }
+        }
+        assertEquals("IEND", type);
+
+        int stride = 1 + image.width * 4;
+        byte[] rows = new byte[stride * image.height];
+        Inflater inflater = new Inflater();
+        inflater.setInput(data.toByteArray());
+        assertEquals(rows.length, inflater.inflate(rows));
+        assertTrue(inflater.finished());
+        inflater.end();
+
+        image.pixels = new int[image.width * image.height];
+        for (int y = 0; y < image.height; y++) {
+            assertEquals("Sub filter", 1, rows[y * stride]);
+            int r = 0, g = 0, b = 0, a = 0;
+            for (int x = 0; x < image.width; x++) {
+                int i = y * stride + 1 + x * 4;
+                r = (r + rows[i]) & 0xFF;
+                g = (g + rows[i + 1]) & 0xFF;
+                b = (b + rows[i + 2]) & 0xFF;
+                a = (a + rows[i + 3]) & 0xFF;
+                image.pixels[y * image.width + x] = (a << 24) | (r << 16) | (g << 8) | b;
+            }
+        }
+        return image;
+    }
+
+    @Test
+    public void testBands() throws Exception {
+        int[] pixels = createPixels(7, 10, 0);
+        Image image = decode(encode(pixels, 7, 10, 3));
+        assertEquals(7, image.width);
+        assertEquals(10, image.height);
+        assertArrayEquals(pixels, image.pixels);
+    }
+
+    @Test
+    public void testManyChunks() throws Exception {
+        // Random pixels do not compress, so this needs several 64KB chunks.
+        int[] pixels = createPixels(300, 200, 1);
+        Image image = decode(encode(pixels, 300, 200, 64));
+        assertTrue(image.chunks > 1);
+        assertArrayEquals(pixels, image.pixels);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyRows() throws Exception {
+        PngEncoder encoder = new PngEncoder(new ByteArrayOutputStream(), 2, 2);
+        Bitmap band = Bitmap.createBitmap(2, 3, Bitmap.Config.ARGB_8888);
+        encoder.encode(band, 3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooFewRows() throws Exception {
+        PngEncoder encoder = new PngEncoder(new ByteArrayOutputStream(), 2, 2);
+        Bitmap band = Bitmap.createBitmap(2, 1, Bitmap.Config.ARGB_8888);
+        encoder.encode(band, 1);
+        encoder.finish();
+    }
+}
@@ -0,0 +1,153 @@
+package com.otaliastudios.printer;
+
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class PrintSchedulerTest {
+
+    private final static File DIRECTORY = new File("output");
+
+    // Records the jobs it was asked to run, and leaves them running.
+    private static class TestPrinter extends Printer {
+
+        private final List<PrintJob> mStarted;
+
+        TestPrinter(DocumentView document, List<PrintJob> started) {
+            super(0, "test", document, new PrintCallback() {
+                @Override
+                public void onPrint(String id, File file) {}
+
+                @Override
+                public void onPrintFailed(String id, Throwable error) {}
+            });
+            mStarted = started;
+        }
+
+        @Override
+        void print(@NonNull PrintJob job, @NonNull PrintTarget target) {
+            mStarted.add(job);
+        }
+    }
+
+    private static class OtherPrinter extends TestPrinter {
+        OtherPrinter(DocumentView document, List<PrintJob> started) {
+            super(document, started);
+        }
+    }
+
+    private final List<PrintJob> mStarted = new ArrayList<>();
+    private PrintScheduler mScheduler;
+    private TestPrinter mPrinter;
+    private TestPrinter mOtherPrinter;
+
+    @Before
+    public void setUp() {
+        DocumentView document = new DocumentView(RuntimeEnvironment.application);
+        mScheduler = new PrintScheduler();
+        mPrinter = new TestPrinter(document, mStarted);
+        mOtherPrinter = new OtherPrinter(document, mStarted);
+    }
+
+    private PrintJob enqueue(TestPrinter printer, String filename) {
+        PrintJob job = new PrintJob(filename);
+        mScheduler.enqueue(printer, job, PrintTarget.file(DIRECTORY, filename));
+        return job;
+    }
+
+    private PrintJob enqueueStream(TestPrinter printer) {
+        PrintJob job = new PrintJob("stream");
+        mScheduler.enqueue(printer, job, PrintTarget.stream(new PrintStreamFactory() {
+            @Override
+            public OutputStream openStream(String id, int index) {
+                return new ByteArrayOutputStream();
+            }
+        }));
+        return job;
+    }
+
+    @Test
+    public void testOneAtATime() {
+        PrintJob first = enqueue(mPrinter, "first");
+        PrintJob second = enqueue(mPrinter, "second");
+        assertEquals(1, mStarted.size());
+        assertSame(first, mStarted.get(0));
+
+        first.finish();
+        assertEquals(2, mStarted.size());
+        assertSame(second, mStarted.get(1));
+    }
+
+    @Test
+    public void testCoalescing() {
+        PrintJob running = enqueue(mPrinter, "file");
+        PrintJob old = enqueue(mPrinter, "file");
+        PrintJob other = enqueue(mPrinter, "other");
+        PrintJob latest = enqueue(mPrinter, "file");
+
+        // The running job is left alone, the queued one is replaced.
+        assertFalse(running.isCancelled());
+        assertTrue(old.isCancelled());
+        assertTrue(old.isDone());
+        assertFalse(other.isCancelled());
+
+        running.finish();
+        other.finish();
+        assertEquals(3, mStarted.size());
+        assertSame(other, mStarted.get(1));
+        assertSame(latest, mStarted.get(2));
+    }
+
+    @Test
+    public void testNoCoalescing() {
+        PrintJob running = enqueue(mPrinter, "file");
+        PrintJob first = enqueue(mPrinter, "file");
+        PrintJob second = enqueue(mOtherPrinter, "file");
+        PrintJob stream1 = enqueueStream(mPrinter);
+        PrintJob stream2 = enqueueStream(mPrinter);
+
+        // Different printer classes write different formats, and streams are never the same output.
+        assertFalse(first.isCancelled());
+        assertFalse(second.isCancelled());
+        assertFalse(stream1.isCancelled());
+        assertFalse(stream2.isCancelled());
+
+        running.finish();
+        first.finish();
+        second.finish();
+        stream1.finish();
+        assertEquals(5, mStarted.size());
+        assertSame(stream2, mStarted.get(4));
+    }
+
+    @Test
+    public void testCancelledJobsAreSkipped() {
+        PrintJob running = enqueue(mPrinter, "first");
+        PrintJob cancelled = enqueue(mPrinter, "second");
+        PrintJob last = enqueue(mPrinter, "third");
+        cancelled.cancel();
+
+        running.finish();
+        assertTrue(cancelled.isDone());
+        assertEquals(2, mStarted.size());
+        assertSame(last, mStarted.get(1));
+    }
+}
@@ -0,0 +1,39 @@
+package com.otaliastudios.printer;
+
+import android.print.PageRange;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertArrayEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class PrinterTest {
+
+    @Test
+    public void testPrintPages_all() {
+        assertArrayEquals(new int[]{ 0, 1, 2 }, Printer.getPrintPages(null, 3));
+        assertArrayEquals(new int[0], Printer.getPrintPages(null, 0));
+    }
+
+    @Test
+    public void testPrintPages_ranges() {
+        PageRange[] ranges = new PageRange[]{ new PageRange(3, 4), new PageRange(0, 1), new PageRange(1, 1) };
+        // Order and duplicates are kept.
+        assertArrayEquals(new int[]{ 3, 4, 0, 1, 1 }, Printer.getPrintPages(ranges, 10));
+    }
+
+    @Test
+    public void testPrintPages_clipped() {
+        PageRange[] ranges = new PageRange[]{ new PageRange(10, Integer.MAX_VALUE) };
+        assertArrayEquals(new int[]{ 10, 11 }, Printer.getPrintPages(ranges, 12));
+        assertArrayEquals(new int[0], Printer.getPrintPages(ranges, 10));
+        assertArrayEquals(new int[0], Printer.getPrintPages(ranges, 0));
+
+        ranges = new PageRange[]{ new PageRange(1, 5), new PageRange(8, 9), new PageRange(2, 2) };
+        assertArrayEquals(new int[]{ 1, 2, 3, 2 }, Printer.getPrintPages(ranges, 4));
+    }
+}
@@ -0,0 +1,163 @@
+package com.otaliastudios.printer;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class TiffEncoderTest {
+
+    private static Bitmap create(int width, int height, int seed) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                bitmap.setPixel(x, y, 0xFF000000 | (seed * 0x1F3D5B + x * 0x2A0C07 + y * 0x00F1E3));
+            }
+        }
+        return bitmap;
+    }
+
+    // Reads the directory at the given offset, as tag -> entry offset.
+    private static Map<Integer, Integer> readDirectory(ByteBuffer buffer, int offset) {
+        Map<Integer, Integer> entries = new HashMap<>();
+        int count = buffer.getShort(offset) & 0xFFFF;
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            int entry = offset + 2 + i * 12;
+            int tag = buffer.getShort(entry) & 0xFFFF;
+            assertTrue("Tags must be sorted", tag > previous);
+            entries.put(tag, entry);
+            previous = tag;
+        }
+        return entries;
+    }
+
+    private static int getValue(ByteBuffer buffer, Map<Integer, Integer> directory, int tag) {
+        int entry = directory.get(tag);
+        if ((buffer.getShort(entry + 2) & 0xFFFF) == 3 && buffer.getInt(entry + 4) == 1) {
+            return buffer.getShort(entry + 8) & 0xFFFF;
+        }
+        return buffer.getInt(entry + 8);
+    }
+
+    // Inflates the strip and reverts the horizontal differencing predictor.
+    private static int[] readStrip(byte[] bytes, int offset, int length, int width, int height) throws Exception {
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes, offset, length);
+        byte[] data = new byte[width * height * 3];
+        assertEquals(data.length, inflater.inflate(data));
+        assertTrue(inflater.finished());
+        inflater.end();
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            int r = 0, g = 0, b = 0;
+            for (int x = 0; x < width; x++) {
+                int i = (y * width + x) * 3;
+                r = (r + data[i]) & 0xFF;
+                g = (g + data[i + 1]) & 0xFF;
+                b = (b + data[i + 2]) & 0xFF;
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] getPixels(Bitmap bitmap) {
+        int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+
+    @Test
+    public void testStructure() throws Exception {
+        Bitmap[] pages = new Bitmap[]{ create(5, 3, 1), create(4, 7, 2) };
+        float[] dpis = new float[]{ 300, 72.5f };
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        TiffEncoder encoder = new TiffEncoder(stream, pages.length);
+        for (int i = 0; i < pages.length; i++) {
+            encoder.encode(pages[i], dpis[i]);
+        }
+        encoder.finish();
+
+        byte[] bytes = stream.toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals('I', bytes[0]);
+        assertEquals('I', bytes[1]);
+        assertEquals(42, buffer.getShort(2));
+        int offset = buffer.getInt(4);
+        assertEquals(8, offset);
+
+        for (int i = 0; i < pages.length; i++) {
+            Bitmap page = pages[i];
+            assertEquals("Directories start on a word boundary", 0, offset % 2);
+            Map<Integer, Integer> directory = readDirectory(buffer, offset);
+            assertEquals(page.getWidth(), getValue(buffer, directory, 256));
+            assertEquals(page.getHeight(), getValue(buffer, directory, 257));
+            assertEquals(8, getValue(buffer, directory, 259));
+            assertEquals(2, getValue(buffer, directory, 262));
+            assertEquals(3, getValue(buffer, directory, 277));
+            assertEquals(page.getHeight(), getValue(buffer, directory, 278));
+            assertEquals(2, getValue(buffer, directory, 317));
+
+            // PageNumber holds two shorts: the page index and the page count.
+            int pageNumber = directory.get(297);
+            assertEquals(i, buffer.getShort(pageNumber + 8));
+            assertEquals(pages.length, buffer.getShort(pageNumber + 10));
+
+            int bitsPerSample = getValue(buffer, directory, 258);
+            assertEquals(8, buffer.getShort(bitsPerSample));
+            assertEquals(8, buffer.getShort(bitsPerSample + 2));
+            assertEquals(8, buffer.getShort(bitsPerSample + 4));
+
+            int resolution = getValue(buffer, directory, 282);
+            assertEquals(Math.round(dpis[i] * 100), buffer.getInt(resolution));
+            assertEquals(100, buffer.getInt(resolution + 4));
+            assertEquals(resolution + 8, getValue(buffer, directory, 283));
+
+            int strip = getValue(buffer, directory, 273);
+            int stripSize = getValue(buffer, directory, 279);
+            assertTrue(strip > offset && strip + stripSize <= bytes.length);
+            assertArrayEquals(getPixels(page),
+                    readStrip(bytes, strip, stripSize, page.getWidth(), page.getHeight()));
+
+            int count = directory.size();
+            offset = buffer.getInt(offset + 2 + count * 12);
+            if (i < pages.length - 1) {
+                // Next directory comes right after the padded strip.
+                assertEquals(strip + stripSize + stripSize % 2, offset);
+            } else {
+                assertEquals(0, offset);
+                assertEquals(strip + stripSize + stripSize % 2, bytes.length);
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooManyPages() throws Exception {
+        TiffEncoder encoder = new TiffEncoder(new ByteArrayOutputStream(), 1);
+        encoder.encode(create(2, 2, 0), 72);
+        encoder.encode(create(2, 2, 0), 72);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTooFewPages() throws Exception {
+        TiffEncoder encoder = new TiffEncoder(new ByteArrayOutputStream(), 2);
+        encoder.encode(create(2, 2, 0), 72);
+        encoder.finish();
+    }
+}
@@ -0,0 +1,85 @@
+package com.otaliastudios.printer;
+
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 25)
+public class UtilsTest {
+
+    private final static int WIDTH = 1000;
+    private final static int HEIGHT = 2000;
+
+    private View mView;
+    private LinearLayout.LayoutParams mParams;
+
+    @Before
+    public void setUp() {
+        mView = new View(RuntimeEnvironment.application);
+        mParams = new LinearLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, 300);
+        mView.setLayoutParams(mParams);
+        Utils.setCachedHeight(mView, WIDTH, HEIGHT, 300);
+    }
+
+    @Test
+    public void testCachedHeight() {
+        assertEquals(300, Utils.getCachedHeight(mView, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void testCachedHeight_boundsChange() {
+        assertEquals(-1, Utils.getCachedHeight(mView, WIDTH + 1, HEIGHT));
+        assertEquals(-1, Utils.getCachedHeight(mView, WIDTH, HEIGHT + 1));
+    }
+
+    @Test
+    public void testCachedHeight_marginChange() {
+        mParams.topMargin = 10;
+        assertEquals(-1, Utils.getCachedHeight(mView, WIDTH, HEIGHT));
+        mParams.topMargin = 0;
+        mParams.bottomMargin = 10;
+        assertEquals(-1, Utils.getCachedHeight(mView, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void testCachedHeight_heightChange() {
+        mParams.height = 400;
+        assertEquals(-1, Utils.getCachedHeight(mView, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void testCachedHeight_paramsSwap() {
+        // Same values, but a different instance.
+        mView.setLayoutParams(new LinearLayout.LayoutParams(mParams));
+        assertEquals(-1, Utils.getCachedHeight(mView, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void testCachedHeight_clear() {
+        Utils.clearCachedHeight(mView);
+        assertEquals(-1, Utils.getCachedHeight(mView, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void testTryGetHeight_fixed() {
+        mParams.topMargin = 10;
+        mParams.bottomMargin = 20;
+        assertEquals(330, Utils.tryGetHeight(mView, HEIGHT, false));
+    }
+
+    @Test
+    public void testTryGetHeight_matchParent() {
+        mParams.height = ViewGroup.LayoutParams.MATCH_PARENT;
+        assertEquals(HEIGHT, Utils.tryGetHeight(mView, HEIGHT, false));
+    }
+}